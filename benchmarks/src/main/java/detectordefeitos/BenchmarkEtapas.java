@@ -0,0 +1,182 @@
+package detectordefeitos;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/*Benchmarks de cada etapa do processamento, sobre as imagens de exemplo
+ de imagens_nova_estrutura. Cada etapa recebe a sada da etapa anterior,
+ calculada uma vez no incio de cada rodada.
+
+ Para gerar e executar (a biblioteca nativa do OpenCV precisa estar em
+ java.library.path; as rodadas herdam os argumentos da JVM):
+
+   mvn -B package
+   java -Djava.library.path=<diretrio do opencv_java2411> \
+        -jar benchmarks/target/benchmarks.jar -prof gc
+
+ -prof gc acrescenta a taxa de alocao (gc.alloc.rate.norm, em bytes
+ por operao) ao resultado de cada benchmark. O diretrio das imagens
+ pode ser indicado com -Dimagens=<diretrio>
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BenchmarkEtapas {
+
+    // Caminho relativo ao diretrio de imagens
+    @Param({"door1.JPG", "fender.JPG", "Paralama Spin D/Imagens a 45cm distancia Zoon max 40graus/DSC_0030.JPG"})
+    public String imagem;
+
+    // Valores salvos pela interface em Parametros/parametros
+    @Param({"112"})
+    public double vMin;
+
+    @Param({"13"})
+    public double sigma;
+
+    // Parmetros da interface (curvMin j dividido por ParametrosProcessamento.FACTOR)
+    private static final double CURV_MIN = 0.002;
+    private static final double CURV_MAX = 0.05;
+    private static final double DIST_INF = 35;
+
+    private File arquivo;
+    private ProcessadorImagem processador;
+    private ProcessaCurva processaCurva;
+    private Mat inicial;
+    private Mat planoV;
+    private Mat mascara;
+    private Mat fronteiras;
+    private ArrayList<Componente> componentes;
+    private double[][] curvas;
+
+    // Imagem onde drawAverageCurve desenha, para no alterar as fronteiras
+    private Mat desenho;
+
+    // Cpia das fronteiras para encontra_tudo, que apaga as componentes pequenas
+    @State(Scope.Thread)
+    public static class CopiaFronteiras {
+        Mat fronteiras;
+
+        @Setup(Level.Invocation)
+        public void restaura(BenchmarkEtapas etapas) {
+            if (fronteiras == null) fronteiras = new Mat();
+            etapas.fronteiras.copyTo(fronteiras);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void preparaImagem() throws IOException {
+        System.loadLibrary(org.opencv.core.Core.NATIVE_LIBRARY_NAME);
+
+        arquivo = new File(diretorioImagens(), imagem);
+        processador = new ProcessadorImagem();
+        processaCurva = new ProcessaCurva();
+
+        ImagemPreprocessada imagem = processador.abreImagem(arquivo);
+        inicial = imagem.getInicial();
+        planoV = imagem.getV();
+        mascara = processador.realizaThreshold(planoV, vMin, 255);
+        fronteiras = processador.encontra_fronteiras(mascara);
+        desenho = fronteiras.clone();
+        componentes = processador.encontra_tudo(fronteiras.clone());
+
+        // Curvas mdias j preenchidas, entrada da suavizao
+        curvas = new double[componentes.size() * 2][];
+        for (int i = 0; i < componentes.size(); i++) {
+            int[][] media = processaCurva.getAverageCurve(fronteiras, componentes.get(i));
+            double[][] preenchida = processaCurva.fillOutPoints(media[0], media[1]);
+            curvas[2 * i] = preenchida[0];
+            curvas[2 * i + 1] = preenchida[1];
+        }
+    }
+
+    static File diretorioImagens() {
+        String configurado = System.getProperty("imagens");
+        if (configurado != null) return new File(configurado);
+
+        File local = new File("imagens_nova_estrutura");
+        if (local.isDirectory()) return local;
+        return new File("../imagens_nova_estrutura");
+    }
+
+    // Planos V e de tons de cinza e histograma do V, a partir da imagem suavizada
+    @Benchmark
+    public Object separaPlanos() {
+        return ImagemPreprocessada.separa(inicial, null);
+    }
+
+    @Benchmark
+    public Mat realizaThreshold() {
+        return processador.realizaThreshold(planoV, vMin, 255);
+    }
+
+    @Benchmark
+    public Mat encontraFronteiras() {
+        return processador.encontra_fronteiras(mascara);
+    }
+
+    @Benchmark
+    public ArrayList<Componente> encontraTudo(CopiaFronteiras copia) {
+        return processador.encontra_tudo(copia.fronteiras);
+    }
+
+    @Benchmark
+    public void drawAverageCurve(Blackhole bh) {
+        for (Componente c : componentes) {
+            bh.consume(processaCurva.drawAverageCurve(desenho, c));
+        }
+    }
+
+    // Suavizao por convoluo direta, como em ProcessaCurva.analisaComponente
+    @Benchmark
+    public void getXDerivativeCurve(Blackhole bh) {
+        for (double[] curva : curvas) {
+            int M = Math.min((int) Math.round((10.0 * sigma + 1.0) / 2.0) * 2 - 1, curva.length);
+            double[][] kernel = processaCurva.getGaussianDerivatives(sigma, M);
+            bh.consume(processaCurva.getXDerivativeCurve(curva, sigma, kernel[0], kernel[1], kernel[2], true));
+        }
+    }
+
+    @Benchmark
+    public void getXDerivativeCurveRecursivo(Blackhole bh) {
+        FiltroGaussianoRecursivo filtro = new FiltroGaussianoRecursivo(sigma);
+        for (double[] curva : curvas) {
+            bh.consume(filtro.getXDerivativeCurve(curva));
+        }
+    }
+
+    // Da mscara binarizada  imagem anotada
+    @Benchmark
+    public Object processImage() {
+        return processador.processImage(mascara, CURV_MIN, CURV_MAX, sigma, DIST_INF);
+    }
+
+    // Da leitura do arquivo  imagem anotada
+    @Benchmark
+    public Object processaArquivo() throws IOException {
+        ThresholdJanelaV janela = processador.janela(vMin, 255);
+        Mat m = processador.abreImagem(arquivo, janela).getMascara(janela);
+        return processador.processImage(m, CURV_MIN, CURV_MAX, sigma, DIST_INF);
+    }
+}
@@ -0,0 +1,136 @@
+package detectordefeitos;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*Cache dos kernels gaussianos (e de suas primeira e segunda derivadas)
+ usados no clculo de curvatura. O kernel depende apenas de sigma e do
+ seu tamanho M, e sigma  fixo para um perfil de parmetros, de forma que
+ o mesmo kernel serve a todas as componentes de todas as imagens.
+
+ M  o tamanho completo do kernel de sigma, ou o nmero de pontos da
+ curva, se ela for menor; cada sigma usa ento at um kernel por tamanho
+ de curva curta. Por isso os kernels so guardados por sigma, com todos
+ os tamanhos de um mesmo sigma juntos: as curvas curtas nunca descartam
+ o kernel completo. O nmero de sigmas guardados  limitado; ao atingir
+ o limite, o menos usado recentemente  descartado com todos os seus
+ tamanhos.
+
+ Uma nica instncia  compartilhada por todas as threads. Os vetores
+ devolvidos so compartilhados e no devem ser modificados
+ */
+
+public class CacheKernelGaussiano {
+
+    // Nmero de sigmas; cada um ocupa at ~200 KB (sigma 13, M de 1 a 131)
+    private static final int CAPACIDADE_PADRAO = 8;
+
+    private static final CacheKernelGaussiano compartilhado = new CacheKernelGaussiano(CAPACIDADE_PADRAO);
+
+    // Para cada sigma (seus bits), os kernels indexados por M (null se ainda no calculado)
+    private final LinkedHashMap<Long, double[][][]> kernels;
+
+    private final AtomicLong acertos = new AtomicLong();
+    private final AtomicLong faltas = new AtomicLong();
+
+    CacheKernelGaussiano(final int capacidade) {
+        kernels = new LinkedHashMap<Long, double[][][]>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Long, double[][][]> mais_antigo) {
+                return size() > capacidade;
+            }
+        };
+    }
+
+    public static CacheKernelGaussiano compartilhado() {
+        return compartilhado;
+    }
+
+    /*Retorna {g, dg, d2g} para o sigma e o tamanho dados, calculando
+     apenas se ainda no estiver no cache
+     */
+    public double[][] get(double sigma, int M) {
+        Long chave = Double.doubleToLongBits(sigma);
+
+        synchronized (kernels) {
+            double[][][] tamanhos = kernels.get(chave);
+            if (tamanhos != null && M < tamanhos.length && tamanhos[M] != null) {
+                acertos.incrementAndGet();
+                return tamanhos[M];
+            }
+        }
+
+        // Calcula fora do bloqueio; se outra thread calcular ao mesmo tempo, fica a primeira
+        faltas.incrementAndGet();
+        double[][] calculado = calcula(sigma, M);
+
+        synchronized (kernels) {
+            double[][][] tamanhos = kernels.get(chave);
+            if (tamanhos == null) {
+                tamanhos = new double[Math.max(M, tamanhoCompleto(sigma)) + 1][][];
+            } else if (M >= tamanhos.length) {
+                tamanhos = Arrays.copyOf(tamanhos, M + 1);
+            } else if (tamanhos[M] != null) {
+                return tamanhos[M];
+            }
+            tamanhos[M] = calculado;
+            kernels.put(chave, tamanhos);
+        }
+        return calculado;
+    }
+
+    // Tamanho do kernel de sigma para curvas longas (como em ProcessaCurva)
+    static int tamanhoCompleto(double sigma) {
+        return (int) Math.round((10.0 * sigma + 1.0) / 2.0) * 2 - 1;
+    }
+
+    public long getAcertos() {
+        return acertos.get();
+    }
+
+    public long getFaltas() {
+        return faltas.get();
+    }
+
+    public String toString() {
+        return "kernels gaussianos: " + getAcertos() + " acertos, " + getFaltas() + " faltas";
+    }
+
+    //primeira linha da matriz - kernel gaussiano
+    //segunda linha - derivada do kernel
+    //terceira linha - segunda derivada
+
+    static double[][] calcula(double sigma, int M) {
+        int L = (M - 1) / 2;
+
+        double sigma_sq = sigma * sigma;
+        double sigma_quad = sigma_sq * sigma_sq;
+
+        double[] gaussian = new double[M];
+        double[] dg = new double[M];
+        double[] d2g = new double[M];
+        double[][] ret = new double[3][M];
+
+        Mat g = Imgproc.getGaussianKernel(M, sigma, CvType.CV_64F);
+        double[] kernel = new double[M];
+        g.get(0, 0, kernel);
+
+        for (double i = -L; i < L + 1.0; i += 1.0) {
+            int idx = (int) (i + L);
+            gaussian[idx] = kernel[idx];
+            dg[idx] = (-i / sigma_sq) * kernel[idx];
+            d2g[idx] = (-sigma_sq + i * i) / sigma_quad * kernel[idx];
+        }
+
+        ret[0] = gaussian;
+        ret[1] = dg;
+        ret[2] = d2g;
+
+        return ret;
+    }
+}
@@ -0,0 +1,257 @@
+package detectordefeitos;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*Cache em disco das imagens pr-processadas (redimensionadas, suavizadas
+ e separadas nos planos V e de tons de cinza). Ao reprocessar as mesmas fotos
+ com outros parmetros, a leitura do JPEG e o pr-processamento so
+ substitudos pela leitura de um arquivo.
+
+ A chave de cada entrada  o SHA-256 do contedo do arquivo de imagem e
+ da descrio do pr-processamento, de forma que uma foto renomeada
+ continua no cache e uma mudana no pr-processamento o invalida. Cada
+ entrada  um arquivo com um cabealho e os trs planos em bytes crus,
+ lido por mapeamento em memria.
+
+ O tamanho total  limitado: ao passar do limite, as entradas usadas h
+ mais tempo so apagadas. A data de modificao dos arquivos guarda o
+ ltimo uso, para que a ordem seja mantida entre execues. Pode ser
+ usado por vrias threads ao mesmo tempo
+ */
+
+public class CachePreprocessamento {
+
+    private static final int MAGICO = 0x44445043;
+    private static final int VERSAO = 2;
+    private static final int CABECALHO = 16;
+    private static final String EXTENSAO = ".planos";
+
+    private static final Metricas.Contador ACERTOS = Metricas.global().contador(
+            "detector_cache_acertos_total", "Imagens lidas do cache de pr-processamento");
+    private static final Metricas.Contador FALTAS = Metricas.global().contador(
+            "detector_cache_faltas_total", "Imagens ausentes do cache de pr-processamento");
+
+    private final File diretorio;
+    private final long tamanhoMaximo;
+
+    // Entradas (nome -> tamanho em bytes) da usada h mais tempo para a mais recente
+    private final LinkedHashMap<String, Long> entradas = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long total;
+
+    CachePreprocessamento(File diretorio, long tamanhoMaximo) throws IOException {
+        this.diretorio = diretorio;
+        this.tamanhoMaximo = tamanhoMaximo;
+
+        if (!diretorio.isDirectory() && !diretorio.mkdirs()) {
+            throw new IOException("No foi possvel criar o diretrio " + diretorio);
+        }
+
+        File[] arquivos = diretorio.listFiles();
+        if (arquivos == null) arquivos = new File[0];
+        Arrays.sort(arquivos, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File f : arquivos) {
+            if (f.getName().endsWith(EXTENSAO)) {
+                entradas.put(f.getName(), f.length());
+                total += f.length();
+            } else if (f.getName().endsWith(".tmp")) {
+                // Restos de uma gravao interrompida
+                f.delete();
+            }
+        }
+    }
+
+    /*Chave de uma imagem: SHA-256 do contedo do arquivo seguido da
+     descrio do pr-processamento
+     */
+    public static String chave(File arquivo, String preprocessamento) throws IOException {
+        MessageDigest sha;
+        try {
+            sha = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        byte[] bloco = new byte[64 * 1024];
+        InputStream entrada = Files.newInputStream(arquivo.toPath());
+        try {
+            int lidos;
+            while ((lidos = entrada.read(bloco)) > 0) {
+                sha.update(bloco, 0, lidos);
+            }
+        } finally {
+            entrada.close();
+        }
+        sha.update(preprocessamento.getBytes("UTF-8"));
+
+        StringBuilder sb = new StringBuilder();
+        for (byte b : sha.digest()) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    // L a entrada da chave, ou devolve null se ela no estiver no cache
+    public ImagemPreprocessada le(String chave) {
+        String nome = chave + EXTENSAO;
+        synchronized (this) {
+            if (entradas.get(nome) == null) {
+                FALTAS.incrementa();
+                return null;
+            }
+        }
+
+        File arquivo = new File(diretorio, nome);
+        try {
+            ImagemPreprocessada imagem = leArquivo(arquivo);
+            arquivo.setLastModified(System.currentTimeMillis());
+            ACERTOS.incrementa();
+            return imagem;
+        } catch (IOException e) {
+            // Entrada corrompida ou apagada por fora: descarta
+            remove(nome);
+            FALTAS.incrementa();
+            return null;
+        }
+    }
+
+    // Grava a entrada da chave, apagando as mais antigas se necessrio
+    public void grava(String chave, ImagemPreprocessada imagem) throws IOException {
+        String nome = chave + EXTENSAO;
+        File arquivo = new File(diretorio, nome);
+        File temporario = File.createTempFile(chave, ".tmp", diretorio);
+        try {
+            gravaArquivo(temporario, imagem);
+            Files.move(temporario.toPath(), arquivo.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temporario.delete();
+        }
+
+        synchronized (this) {
+            Long anterior = entradas.put(nome, arquivo.length());
+            total += arquivo.length() - (anterior == null ? 0 : anterior);
+
+            Iterator<Map.Entry<String, Long>> it = entradas.entrySet().iterator();
+            while (total > tamanhoMaximo && it.hasNext()) {
+                Map.Entry<String, Long> maisAntiga = it.next();
+                if (maisAntiga.getKey().equals(nome)) continue;
+                new File(diretorio, maisAntiga.getKey()).delete();
+                total -= maisAntiga.getValue();
+                it.remove();
+            }
+        }
+    }
+
+    private synchronized void remove(String nome) {
+        Long tamanho = entradas.remove(nome);
+        if (tamanho != null) total -= tamanho;
+        new File(diretorio, nome).delete();
+    }
+
+    public synchronized long getTamanho() {
+        return total;
+    }
+
+    /* ********************************* */
+    /* FORMATO DO ARQUIVO                */
+    /* ********************************* */
+
+    /*Cabealho (inteiros de 32 bits): mgico, verso, linhas e colunas.
+     Seguem os planos inicial (3 canais), V (1 canal) e tons de cinza
+     (1 canal), linha aps linha
+     */
+    private static void gravaArquivo(File arquivo, ImagemPreprocessada imagem) throws IOException {
+        Mat inicial = continuo(imagem.getInicial());
+        Mat v = continuo(imagem.getV());
+        Mat gray = continuo(imagem.getGray());
+        int linhas = inicial.rows();
+        int colunas = inicial.cols();
+
+        ByteBuffer cabecalho = ByteBuffer.allocate(CABECALHO);
+        cabecalho.putInt(MAGICO).putInt(VERSAO).putInt(linhas).putInt(colunas);
+        cabecalho.flip();
+
+        byte[] plano = new byte[linhas * colunas * 3];
+        FileChannel canal = FileChannel.open(arquivo.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            escreveTudo(canal, cabecalho);
+            inicial.get(0, 0, plano);
+            escreveTudo(canal, ByteBuffer.wrap(plano));
+            v.get(0, 0, plano);
+            escreveTudo(canal, ByteBuffer.wrap(plano, 0, linhas * colunas));
+            gray.get(0, 0, plano);
+            escreveTudo(canal, ByteBuffer.wrap(plano, 0, linhas * colunas));
+        } finally {
+            canal.close();
+        }
+    }
+
+    private static ImagemPreprocessada leArquivo(File arquivo) throws IOException {
+        FileChannel canal = FileChannel.open(arquivo.toPath(), StandardOpenOption.READ);
+        try {
+            MappedByteBuffer dados = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            if (dados.remaining() < CABECALHO || dados.getInt() != MAGICO || dados.getInt() != VERSAO) {
+                throw new IOException("Entrada invlida no cache: " + arquivo);
+            }
+            int linhas = dados.getInt();
+            int colunas = dados.getInt();
+            long esperado = CABECALHO + 5L * linhas * colunas;
+            if (linhas <= 0 || colunas <= 0 || dados.capacity() != esperado) {
+                throw new IOException("Entrada invlida no cache: " + arquivo);
+            }
+
+            byte[] plano = new byte[linhas * colunas * 3];
+            Mat inicial = lePlano(dados, plano, linhas, colunas, CvType.CV_8UC3);
+            Mat v = lePlano(dados, plano, linhas, colunas, CvType.CV_8UC1);
+            Mat gray = lePlano(dados, plano, linhas, colunas, CvType.CV_8UC1);
+            return new ImagemPreprocessada(inicial, v, gray);
+        } finally {
+            canal.close();
+        }
+    }
+
+    private static Mat lePlano(ByteBuffer dados, byte[] plano, int linhas, int colunas, int tipo) {
+        int tamanho = linhas * colunas * CvType.channels(tipo);
+        dados.get(plano, 0, tamanho);
+        Mat m = new Mat(linhas, colunas, tipo);
+        if (tamanho == plano.length) {
+            m.put(0, 0, plano);
+        } else {
+            m.put(0, 0, Arrays.copyOf(plano, tamanho));
+        }
+        return m;
+    }
+
+    private static void escreveTudo(FileChannel canal, ByteBuffer dados) throws IOException {
+        while (dados.hasRemaining()) {
+            canal.write(dados);
+        }
+    }
+
+    private static Mat continuo(Mat m) {
+        return m.isContinuous() ? m : m.clone();
+    }
+}
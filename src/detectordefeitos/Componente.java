@@ -0,0 +1,147 @@
+package detectordefeitos;
+
+import org.opencv.core.Point;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*A classe Componente representa um conjunto de pontos que
+ forma uma franja na imagem. Os pontos so guardados como coordenadas
+ inteiras em dois vetores (x e y), na ordem em que foram adicionados, e
+ a pertinncia de um ponto  verificada em um mapa de bits que cobre o
+ retngulo envolvente da componente. Tambm so computados os valores
+ mximos e mnimos das coordenadas x e y dentro da componente
+ */
+
+public class Componente {
+
+
+    private int[] xs;
+    private int[] ys;
+    private int n;
+
+    /*Um bit por pixel do retngulo [x_min, x_max] x [y_min, y_max].
+      recriado sob demanda quando novos pontos so adicionados*/
+    private volatile long[] mapa;
+
+    int y_max = Integer.MIN_VALUE;
+    int y_min = Integer.MAX_VALUE;
+    int x_max = Integer.MIN_VALUE;
+    int x_min = Integer.MAX_VALUE;
+
+    //(public/private) tipo_da_saida nome_metodo(argumentos)
+
+    private void atualizaLimites(int x, int y) {
+        if (x > x_max) x_max = x;
+        if (x < x_min) x_min = x;
+        if (y > y_max) y_max = y;
+        if (y < y_min) y_min = y;
+    }
+
+    private synchronized long[] criaMapa() {
+        if (mapa != null) return mapa;
+
+        int largura = x_max - x_min + 1;
+        long bits = (long) largura * (y_max - y_min + 1);
+        long[] novo = new long[(int) ((bits + 63) >> 6)];
+
+        for (int i = 0; i < n; i++) {
+            long bit = (long) (ys[i] - y_min) * largura + (xs[i] - x_min);
+            novo[(int) (bit >> 6)] |= 1L << bit;
+        }
+        mapa = novo;
+        return novo;
+    }
+
+    //Podemos criar uma componente fornecendo a lista de pontos
+    Componente(ArrayList<Point> corpo) {
+        this(corpo.size());
+        for (Point k : corpo) add(k);
+    }
+
+    /*Ou fornecendo diretamente as coordenadas (os vetores passam a
+    pertencer  componente)*/
+    Componente(int[] xs, int[] ys, int n) {
+        this.xs = xs;
+        this.ys = ys;
+        this.n = n;
+        for (int i = 0; i < n; i++) atualizaLimites(xs[i], ys[i]);
+    }
+
+    //Ou ento criar uma componente vazia
+    Componente() {
+        this(16);
+    }
+
+    private Componente(int capacidade) {
+        this.xs = new int[Math.max(capacidade, 1)];
+        this.ys = new int[Math.max(capacidade, 1)];
+    }
+
+	/*Funes para a adio de pontos. Existem duas funes pois
+	Existem duas classes Point diferentes. Uma vindo da biblioteca
+	Java.awt e outra vinda do Opencv. Em ambos os casos as coordenadas
+	so guardadas como inteiros*/
+
+    public void add(int x, int y) {
+        if (n == xs.length) {
+            xs = Arrays.copyOf(xs, n * 2);
+            ys = Arrays.copyOf(ys, n * 2);
+        }
+        xs[n] = x;
+        ys[n] = y;
+        n++;
+        atualizaLimites(x, y);
+        mapa = null;
+    }
+
+    public void add(Point k) {
+        add((int) k.x, (int) k.y);
+    }
+
+    public void add(java.awt.Point k) {
+        add(k.x, k.y);
+    }
+
+    //Nmero de pontos da componente
+    public int tamanho() {
+        return n;
+    }
+
+    //Coordenadas do i-simo ponto
+    public int getX(int i) {
+        return xs[i];
+    }
+
+    public int getY(int i) {
+        return ys[i];
+    }
+
+    /*Retorna o conjunto de pontos de uma componente
+    conexa. A lista  criada a cada chamada; para percorrer os
+    pontos sem criar objetos, use tamanho(), getX() e getY()*/
+    public ArrayList<Point> getCorpo() {
+        ArrayList<Point> corpo = new ArrayList<Point>(n);
+        for (int i = 0; i < n; i++) {
+            corpo.add(new Point(xs[i], ys[i]));
+        }
+        return corpo;
+    }
+
+    //Verifica se um ponto pertence ou no a uma dada componente
+    public boolean hasPoint(int x, int y) {
+        if (x < x_min || x > x_max || y < y_min || y > y_max) return false;
+
+        long[] m = mapa;
+        if (m == null) m = criaMapa();
+
+        long bit = (long) (y - y_min) * (x_max - x_min + 1) + (x - x_min);
+        return (m[(int) (bit >> 6)] & (1L << bit)) != 0;
+    }
+
+    public boolean hasPoint(Point k) {
+        int x = (int) k.x;
+        int y = (int) k.y;
+        return x == k.x && y == k.y && hasPoint(x, y);
+    }
+}
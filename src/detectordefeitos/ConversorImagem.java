@@ -0,0 +1,161 @@
+package detectordefeitos;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.awt.Graphics2D;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/*Converso entre Mat (OpenCV) e BufferedImage (Java2D) com uma nica
+ cpia dos pixels em cada sentido: o Mat  lido diretamente para o vetor
+ que guarda os pixels da BufferedImage, e vice-versa, sem vetores
+ intermedirios. So aceitas imagens de 1 canal (tons de cinza) e de 3
+ canais.
+
+ Os bytes de cada pixel so copiados na ordem em que esto, sem troca de
+ canais: na exibio, os canais de um Mat colorido so lidos como R, G e
+ B, a conveno usada no restante do programa (ver
+ ProcessaCurva.getRGBValue).
+
+ Uma instncia guarda ainda algumas imagens j alocadas para reuso: uma
+ imagem devolvida com devolve()  entregue de novo na prxima converso
+ de mesmo tamanho e tipo. S devem ser devolvidas imagens que no sero
+ mais usadas (por exemplo, depois de gravadas em disco)
+ */
+
+public class ConversorImagem {
+
+    // Modelo de cor das imagens coloridas: trs bytes por pixel, na ordem R, G, B
+    private static final ColorModel RGB = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB),
+            false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+
+    private final int capacidade;
+    private final ArrayDeque<BufferedImage> livres = new ArrayDeque<BufferedImage>();
+
+    ConversorImagem(int capacidade) {
+        this.capacidade = capacidade;
+    }
+
+    /* ********************************* */
+    /* MAT -> BUFFEREDIMAGE              */
+    /* ********************************* */
+
+    // Converte para uma imagem nova
+    public static BufferedImage paraBufferedImage(Mat input) {
+        BufferedImage image = novaImagem(input.cols(), input.rows(), canais(input));
+        copia(input, image);
+        return image;
+    }
+
+    // Converte reaproveitando, se houver, uma imagem devolvida de mesmo tamanho e tipo
+    public BufferedImage paraBufferedImageReusando(Mat input) {
+        BufferedImage image = obtem(input.cols(), input.rows(), canais(input));
+        copia(input, image);
+        return image;
+    }
+
+    // Devolve uma imagem que no ser mais usada, para ser reaproveitada
+    public synchronized void devolve(BufferedImage image) {
+        if (image == null || livres.size() >= capacidade) return;
+        livres.push(image);
+    }
+
+    private synchronized BufferedImage obtem(int largura, int altura, int canais) {
+        for (Iterator<BufferedImage> it = livres.iterator(); it.hasNext(); ) {
+            BufferedImage image = it.next();
+            if (image.getWidth() == largura && image.getHeight() == altura
+                    && image.getRaster().getNumBands() == canais) {
+                it.remove();
+                return image;
+            }
+        }
+        return novaImagem(largura, altura, canais);
+    }
+
+    private static BufferedImage novaImagem(int largura, int altura, int canais) {
+        if (canais == 1) {
+            return new BufferedImage(largura, altura, BufferedImage.TYPE_BYTE_GRAY);
+        }
+        WritableRaster raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, largura, altura,
+                largura * 3, 3, new int[]{0, 1, 2}, null);
+        return new BufferedImage(RGB, raster, false, null);
+    }
+
+    private static int canais(Mat input) {
+        if (input.depth() != CvType.CV_8U || (input.channels() != 1 && input.channels() != 3)) {
+            throw new IllegalArgumentException("Tipo de Mat no suportado: " + CvType.typeToString(input.type()));
+        }
+        return input.channels();
+    }
+
+    // L os pixels do Mat diretamente para o vetor da imagem
+    private static void copia(Mat input, BufferedImage image) {
+        if (!input.isContinuous()) {
+            input = input.clone();
+        }
+        input.get(0, 0, pixels(image));
+    }
+
+    /* ********************************* */
+    /* BUFFEREDIMAGE -> MAT              */
+    /* ********************************* */
+
+    public static Mat paraMat(BufferedImage img) {
+        return paraMat(img, new Mat());
+    }
+
+    /*Converte para o Mat dado, que  realocado apenas se o tamanho ou o
+     tipo forem diferentes. Imagens com 1 ou 3 bytes por pixel (como as
+     lidas pelo ImageIO) so copiadas diretamente; as demais so antes
+     redesenhadas em TYPE_3BYTE_BGR
+     */
+    public static Mat paraMat(BufferedImage img, Mat destino) {
+        if (!temLayoutSimples(img)) {
+            img = converte(img, BufferedImage.TYPE_3BYTE_BGR);
+        }
+
+        int tipo = img.getRaster().getNumBands() == 1 ? CvType.CV_8UC1 : CvType.CV_8UC3;
+        destino.create(img.getHeight(), img.getWidth(), tipo);
+        destino.put(0, 0, pixels(img));
+        return destino;
+    }
+
+    // Vetor de pixels da imagem (sem cpia)
+    private static byte[] pixels(BufferedImage image) {
+        return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+
+    /*Verifica se o vetor da imagem contm exatamente os seus pixels, com 1
+     ou 3 bytes por pixel, linha aps linha (o que no acontece, por
+     exemplo, com subimagens ou imagens com transparncia)
+     */
+    private static boolean temLayoutSimples(BufferedImage img) {
+        Raster raster = img.getRaster();
+        int canais = raster.getNumBands();
+        return (canais == 1 || canais == 3)
+                && raster.getParent() == null
+                && raster.getDataBuffer() instanceof DataBufferByte
+                && raster.getSampleModel() instanceof PixelInterleavedSampleModel
+                && pixels(img).length == img.getWidth() * img.getHeight() * canais;
+    }
+
+    // Redesenha a imagem no tipo dado (usado apenas para formatos fora do padro)
+    private static BufferedImage converte(BufferedImage img, int tipo) {
+        BufferedImage convertida = new BufferedImage(img.getWidth(), img.getHeight(), tipo);
+        Graphics2D g = convertida.createGraphics();
+        g.drawImage(img, 0, 0, null);
+        g.dispose();
+        return convertida;
+    }
+}
@@ -0,0 +1,29 @@
+package detectordefeitos;
+
+/*Um defeito encontrado em uma imagem: ponto de inflexo da curva mdia
+ de uma franja cuja curvatura est acima do mnimo configurado
+ */
+
+public class Defeito {
+
+    // Posio na imagem processada (curva suavizada)
+    final double x;
+    final double y;
+
+    // Mdulo da curvatura (kappa) no ponto
+    final double curvatura;
+
+    // ndice da componente (franja) na lista de componentes da imagem
+    final int componente;
+
+    // Posio do ponto ao longo da curva da componente
+    final int indice;
+
+    Defeito(double x, double y, double curvatura, int componente, int indice) {
+        this.x = x;
+        this.y = y;
+        this.curvatura = curvatura;
+        this.componente = componente;
+        this.indice = indice;
+    }
+}
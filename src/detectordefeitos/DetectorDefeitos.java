@@ -1,7 +1,8 @@
-import org.opencv.core.Mat;
+package detectordefeitos;
 
-import javax.imageio.ImageIO;
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.UIManager.LookAndFeelInfo;
 import javax.swing.filechooser.FileFilter;
 import javax.swing.filechooser.FileNameExtensionFilter;
@@ -25,16 +26,18 @@ import java.io.IOException;
 public class DetectorDefeitos extends JFrame {
 
     private JFileChooser jfile = null;
-    private TextHandler handler;
-    private String FILENAME;
-    double[] storedValues; //Where the parameters from FILENAME will be loaded.
+    private PerfisParametros perfis; // Parameter profiles, one per part type
 
     private PainelImagem pn;
+    private PreviaProcessamento previa; // Processamento em segundo plano
     private JPanel mainJPanel, buttonJPanel, controlParametersJPanel;
     private JButton selectJButton, removeAreaJButton, processJButton,
             testThresholdJButton, cropAreaJButton, doorParamsJButton,
-            mudGuardParamsJButton, histJButton, saveJButton, loadJButton;
-    private JLabel numberOfDefectsJLabel, spacerJLabel;
+            mudGuardParamsJButton, histJButton, saveJButton, loadJButton,
+            saveMasksJButton;
+    private JLabel numberOfDefectsJLabel, spacerJLabel, partTypeJLabel;
+    private JComboBox<String> partTypeJComboBox;
+    private RepositorioMascaras mascaras; // Mscaras salvas por tipo de pea
     private FileFilter jpg_filtro;
     private JLabel sigmaJLabel, maxCurvatureJLabel, minCurvatureJLabel,
             minDistanceJLabel, thresholdJLabel;
@@ -61,7 +64,10 @@ public class DetectorDefeitos extends JFrame {
 
     private String sThresh, sCmin, sCmax, sRange, sSigma;
 
-    private static int procCounter = 0; // Helps name the saved processed image file
+    // Saves the processed images in the background, without overwriting older ones
+    private final GravadorImagens gravador = new GravadorImagens(GravadorImagens.PADRAO, 1, 4, false);
+
+    private static final String SEM_TIPO = "Nenhum"; // No part type: no saved masks are applied
 
 
     /**
@@ -71,8 +77,12 @@ public class DetectorDefeitos extends JFrame {
      */
     DetectorDefeitos() {
 
-        FILENAME = "Parametros/parametros";
-        handler = new TextHandler();
+        try {
+            perfis = PerfisParametros.carrega();
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(null, "Erro ao ler os perfis de parmetros: " + e.getMessage(), "Erro", JOptionPane.ERROR_MESSAGE);
+        }
+        mascaras = new RepositorioMascaras(new File(RepositorioMascaras.DIRETORIO_PADRAO));
 
         //Seta parmetros da janela
         setSize(WINDOW_WIDTH + PAINEL_WIDTH + FOLGA, WINDOW_HEIGHT
@@ -140,6 +150,25 @@ public class DetectorDefeitos extends JFrame {
 
         //Painel de imagem, que  a regio onde a imagem  exibida
         pn = new PainelImagem();
+        previa = new PreviaProcessamento(pn.getIncremental());
+
+        //Reprocessa a imagem em segundo plano enquanto os parmetros so editados
+        DocumentListener editaParametro = new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) {
+                agendaPrevia();
+            }
+
+            public void removeUpdate(DocumentEvent e) {
+                agendaPrevia();
+            }
+
+            public void changedUpdate(DocumentEvent e) {
+                agendaPrevia();
+            }
+        };
+        sigmaJTextField.getDocument().addDocumentListener(editaParametro);
+        thresholdJTextField.getDocument().addDocumentListener(editaParametro);
+        minCurvatureJTextField.getDocument().addDocumentListener(editaParametro);
 
         //Boto de selecionar imagem
         selectJButton = new JButton("Selecionar imagem");
@@ -173,6 +202,7 @@ public class DetectorDefeitos extends JFrame {
                 } else {
                     removeAreaJButton.setText("Retira area indesejada");
                     removeAreaJButton.setBackground(null);
+                    previa.cancela();
                     pn.atualizaImagemCorte();
 
                 }
@@ -198,6 +228,7 @@ public class DetectorDefeitos extends JFrame {
                 } else {
                     cropAreaJButton.setText("Seleciona area desejada");
                     cropAreaJButton.setBackground(null);
+                    previa.cancela();
                     pn.atualizaImagemProcessamento();
 
                 }
@@ -209,78 +240,40 @@ public class DetectorDefeitos extends JFrame {
         processJButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
 				/*Opera o Threshold selecionado e realiza o processamento
-				 da imagem
+				 da imagem, em segundo plano. A mscara  exibida assim que
+				 fica pronta, e o resultado ao final
 				 */
+                if (pn.retornaImagemInicial() == null) {
+                    JOptionPane.showMessageDialog(null, "Imagem nula! Selecione uma imagem", "Erro", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
 
-                double curvMin = converte(minCurvatureJTextField.getText())
-                        / FACTOR;
-                double curvMax = converte(maxCurvatureJTextField.getText());
-                double sigma = converte(sigmaJTextField.getText());
-                double distInf = converte(minDistanceJTextField.getText());
-
-                Mat resultado = realizaThreshold();
-                BufferedImage output = pn.executeProcessing(resultado, curvMin,
-                        curvMax, sigma,
-                        distInf);
+                previa.processa(pn.retornaImagemV(), leParametros(), new PreviaProcessamento.Exibicao() {
+                    public void mostraMascara(BufferedImage mascara) {
+                        pn.exibe(mascara);
+                    }
 
-                // Salvar imagem no diretorio
-                try {
-                    // debug
-                    System.out.println(jfile.getSelectedFile().getName());
-
-                    // Make file name
-                    String fileName = jfile.getCurrentDirectory().toString()
-                            + "\\"
-                            + jfile.getSelectedFile().getName() + "_PROC_"
-                            + procCounter + ".jpg";
-                    //debug
-                    System.out.println(fileName);
-                    File outputfile = new File(fileName);
-                    procCounter++;
-
-                    // Write the output file
-                    ImageIO.write(output, "png", outputfile);
-
-                } catch (IOException e1) {
-                    // TODO Auto-generated catch block
-                    e1.printStackTrace();
-                }
+                    public void mostraResultado(ResultadoImagem resultado) {
+                        BufferedImage output = resultado.getImagem();
+                        pn.exibe(output);
+                        salvaResultado(output);
+                    }
+                });
             }
         });
 
+        //Salva os parmetros no perfil do tipo de pea selecionado
         saveJButton = new JButton("Salvar");
         saveJButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                try {
-                    handler.writeFile(
-                            new double[]{converte(sigmaJTextField.getText()),
-                                    converte(thresholdJTextField.getText()),
-                                    converte(minCurvatureJTextField.getText())},
-                            FILENAME);
-                } catch (IOException e1) {
-                    // TODO Auto-generated catch block
-                    e1.printStackTrace();
-                }
+                salvaPerfil();
             }
         });
 
         loadJButton = new JButton("Importar Parmetros");
         loadJButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                try {
-                    storedValues = handler.readFile(FILENAME);
-                    nSigma = storedValues[0];
-                    nThresh = (int) storedValues[1];
-                    nCmin = storedValues[2];
-
-                } catch (IOException e1) {
-                    // TODO Auto-generated catch block
-                    e1.printStackTrace();
-                }
-                atualizaString();
-                validate();
-                repaint();
-
+                carregaPerfil(nomePerfil());
             }
         });
 
@@ -290,10 +283,15 @@ public class DetectorDefeitos extends JFrame {
 				/*Apenas abre uma janela com o resultado do Theshold
 				para fins de teste*/
                 if (pn.retornaImagemInicial() != null) {
-                    Mat resultado = realizaThreshold();
-
-                    MostraImagem k = new MostraImagem(pn.converteMatBufferedImage(resultado, true));
-                    k.setVisible(true);
+                    previa.binariza(pn.retornaImagemV(), leParametros(), new PreviaProcessamento.Exibicao() {
+                        public void mostraMascara(BufferedImage mascara) {
+                            MostraImagem k = new MostraImagem(mascara);
+                            k.setVisible(true);
+                        }
+
+                        public void mostraResultado(ResultadoImagem resultado) {
+                        }
+                    });
                 } else {
                     JOptionPane.showMessageDialog(null, "Imagem nula! Selecione uma imagem", "Erro", JOptionPane.ERROR_MESSAGE);
                 }
@@ -304,28 +302,48 @@ public class DetectorDefeitos extends JFrame {
         doorParamsJButton = new JButton("Porta");
         doorParamsJButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                nSigma = 14;
-                nThresh = 140;
-                nRange = 40;
-                nCmin = 0.001;
-                nCmax = 0.04;
-                atualizaString();
-                validate();
-                repaint();
+                carregaPerfil(RepositorioMascaras.TIPOS[0]);
             }
         });
 
         mudGuardParamsJButton = new JButton("Para-lama");
         mudGuardParamsJButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-                nSigma = 12;
-                nThresh = 180;
-                nRange = 40;
-                nCmin = 0.001;
-                nCmax = 0.04;
-                atualizaString();
-                validate();
-                repaint();
+                carregaPerfil(RepositorioMascaras.TIPOS[1]);
+            }
+        });
+
+        /*Tipo de pea: as mscaras salvas para ele so aplicadas a cada
+        imagem aberta*/
+        partTypeJLabel = new JLabel(" Tipo de pea (mscaras): ");
+        partTypeJComboBox = new JComboBox<String>();
+        partTypeJComboBox.addItem(SEM_TIPO);
+        for (String tipo : RepositorioMascaras.TIPOS) partTypeJComboBox.addItem(tipo);
+        partTypeJComboBox.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                // Os parmetros do tipo escolhido so carregados (ou os do perfil padro)
+                if (perfis != null && perfis.get(nomePerfil()) != null) {
+                    carregaPerfil(nomePerfil());
+                }
+            }
+        });
+
+        //Salva os cortes feitos na imagem atual como as mscaras do tipo de pea
+        saveMasksJButton = new JButton("Salvar mscaras da pea");
+        saveMasksJButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                String tipo = tipoSelecionado();
+                if (pn.getMascaras() == null) {
+                    JOptionPane.showMessageDialog(null, "Imagem nula! Selecione uma imagem", "Erro", JOptionPane.ERROR_MESSAGE);
+                } else if (tipo == null) {
+                    JOptionPane.showMessageDialog(null, "Selecione o tipo de pea", "Erro", JOptionPane.ERROR_MESSAGE);
+                } else {
+                    try {
+                        mascaras.salva(tipo, pn.getMascaras());
+                    } catch (IOException ex) {
+                        JOptionPane.showMessageDialog(null, "Erro ao salvar as mscaras: " + ex.getMessage(), "Erro", JOptionPane.ERROR_MESSAGE);
+                    }
+                }
             }
         });
 
@@ -335,7 +353,7 @@ public class DetectorDefeitos extends JFrame {
 
             @Override
             public void actionPerformed(ActionEvent e) {
-                new Histogram(pn.retornaImagemInicial());
+                new Histogram(pn.retornaImagemInicial()).mostra();
             }
         });
 
@@ -356,6 +374,9 @@ public class DetectorDefeitos extends JFrame {
         buttonJPanel.add(processJButton);
         buttonJPanel.add(histJButton);
         buttonJPanel.add(saveJButton);
+        buttonJPanel.add(partTypeJLabel);
+        buttonJPanel.add(partTypeJComboBox);
+        buttonJPanel.add(saveMasksJButton);
 
         //buttonJPanel.add(spacerJLabel);
 
@@ -390,31 +411,80 @@ public class DetectorDefeitos extends JFrame {
 
 
     /**
-     * @return Contains the thresholded image in Mat format
+     * @return the processing parameters currently typed in the text fields
+     * @throws NumberFormatException if a field does not hold a number
      */
-    public Mat realizaThreshold() {
-        Mat imagem = pn.retornaImagemInicial();
-        Mat resultado = imagem.clone();
-        Mat imagemHSV = pn.retornaImagemHSV();
-        //Mat imagem_gray = pn.retornaImagemGray();
-
-        double v_min = converte(thresholdJTextField.getText());
-        int rows = imagem.rows();
-        int cols = imagem.cols();
-
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                resultado.put(i, j, new double[]{0, 0, 0});
-                double hsv[] = imagemHSV.get(i, j);
-                boolean troca = true;
-                if ((hsv[2] < v_min || hsv[2] > vMax))
-                    troca = false;
-                if (troca)
-                    resultado.put(i, j, new double[]{255, 255, 255});
-            }
+    ParametrosProcessamento leParametros() {
+        ParametrosProcessamento p = new ParametrosProcessamento(
+                converte(sigmaJTextField.getText()),
+                converte(thresholdJTextField.getText()),
+                converte(minCurvatureJTextField.getText()) / FACTOR,
+                converte(maxCurvatureJTextField.getText()),
+                converte(minDistanceJTextField.getText()));
+        p.vMax = vMax;
+        return p;
+    }
+
+    /**
+     * Schedules a background re-processing of the displayed image with the
+     * parameters being typed. Nothing is done while a field does not hold
+     * a valid number.
+     */
+    private void agendaPrevia() {
+        if (pn.retornaImagemInicial() == null) return;
+
+        ParametrosProcessamento p;
+        try {
+            p = leParametros();
+        } catch (NumberFormatException e) {
+            return;
         }
 
-        return resultado;
+        previa.agenda(pn.retornaImagemV(), p, new PreviaProcessamento.Exibicao() {
+            public void mostraMascara(BufferedImage mascara) {
+                pn.exibe(mascara);
+            }
+
+            public void mostraResultado(ResultadoImagem resultado) {
+                pn.exibe(resultado.getImagem());
+            }
+        });
+    }
+
+    /**
+     * Saves a processed image next to the selected file, as
+     * &lt;name&gt;_PROC.png (or _PROC_1.png, _PROC_2.png... if it already exists).
+     * The image is encoded and written by the output writer thread; if it
+     * still has too many images to write, nothing is saved and the user is told.
+     *
+     * @param output processed image
+     */
+    private void salvaResultado(BufferedImage output) {
+        File selecionado = jfile.getSelectedFile().getAbsoluteFile();
+        String nome = selecionado.getName();
+        int ponto = nome.lastIndexOf('.');
+        String base = (ponto > 0 ? nome.substring(0, ponto) : nome) + "_PROC";
+
+        try {
+            File outputfile = gravador.reserva(selecionado.getParentFile(), base);
+            boolean enfileirada = gravador.tentaGravar(output, outputfile, new GravadorImagens.Conclusao() {
+                public void concluida(final File arquivo, boolean gravada) {
+                    if (gravada) return;
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            JOptionPane.showMessageDialog(null, "Erro ao salvar a imagem " + arquivo, "Erro", JOptionPane.ERROR_MESSAGE);
+                        }
+                    });
+                }
+            });
+            if (!enfileirada) {
+                gravador.cancelaReserva(outputfile);
+                JOptionPane.showMessageDialog(null, "Ainda h imagens sendo salvas. Processe novamente em instantes para salvar esta.",
+                        "Aviso", JOptionPane.WARNING_MESSAGE);
+            }
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(null, "Erro ao salvar a imagem: " + e.getMessage(), "Erro", JOptionPane.ERROR_MESSAGE);
+        }
     }
 
 
@@ -449,7 +519,8 @@ public class DetectorDefeitos extends JFrame {
         System.out.println(a.getName());
 
         if (a != null) {
-            pn.abreImagem(a);
+            previa.cancela();
+            pn.abreImagem(a, mascarasSelecionadas());
             return 1;
         }
 
@@ -457,6 +528,85 @@ public class DetectorDefeitos extends JFrame {
 
     }
 
+    /**
+     * @return the part type selected in the interface, or null if none
+     */
+    private String tipoSelecionado() {
+        String tipo = (String) partTypeJComboBox.getSelectedItem();
+        return SEM_TIPO.equals(tipo) ? null : tipo;
+    }
+
+    /**
+     * @return the name of the parameter profile of the selected part type
+     */
+    private String nomePerfil() {
+        String tipo = tipoSelecionado();
+        return tipo != null ? tipo : PerfisParametros.PADRAO;
+    }
+
+    /**
+     * Shows the parameters of a profile in the text fields.
+     *
+     * @param nome profile name
+     */
+    private void carregaPerfil(String nome) {
+        ParametrosProcessamento p = perfis != null ? perfis.get(nome) : null;
+        if (p == null) {
+            JOptionPane.showMessageDialog(null, "No h parmetros salvos para " + nome, "Erro", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        nSigma = p.sigma;
+        nThresh = (int) p.vMin;
+        nCmin = p.curvMin * FACTOR;
+        nCmax = p.curvMax;
+        nRange = (int) p.distInf;
+        atualizaString();
+        validate();
+        repaint();
+    }
+
+    /**
+     * Saves the parameters in the text fields as the profile of the selected
+     * part type, keeping the profile's mask reference.
+     */
+    private void salvaPerfil() {
+        if (perfis == null) {
+            JOptionPane.showMessageDialog(null, "Os perfis de parmetros no puderam ser lidos", "Erro", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        String nome = nomePerfil();
+        try {
+            ParametrosProcessamento p = leParametros();
+            ParametrosProcessamento anterior = perfis.get(nome);
+            p.mascaras = anterior != null ? anterior.mascaras : tipoSelecionado();
+            perfis.salva(nome, p);
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(null, "Parmetro invlido: " + e.getMessage(), "Erro", JOptionPane.ERROR_MESSAGE);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(null, "Erro ao salvar os parmetros: " + e.getMessage(), "Erro", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * @return the masks referenced by the profile of the selected part type
+     * (by default, the ones saved for the type itself), or null if there is
+     * no type selected or no masks saved
+     */
+    private MascarasPeca mascarasSelecionadas() {
+        String tipo = tipoSelecionado();
+        if (tipo == null) return null;
+        ParametrosProcessamento perfil = perfis != null ? perfis.get(tipo) : null;
+        if (perfil != null && perfil.mascaras != null) tipo = perfil.mascaras;
+        try {
+            return mascaras.carrega(tipo);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(null, "Erro ao ler as mscaras de " + tipo + ": " + e.getMessage(), "Erro", JOptionPane.ERROR_MESSAGE);
+            return null;
+        }
+    }
+
     /**
      *
      * @param k String to convert to double format
@@ -493,11 +643,17 @@ public class DetectorDefeitos extends JFrame {
     }
 
     /**
-     * Main routine.
+     * Main routine. When called with arguments, runs the headless batch
+     * mode (see ProcessadorLote) instead of opening the window.
      *
      * @param args
      */
     public static void main(String args[]) {
+        // Com argumentos, roda o processamento em lote, sem interface grfica
+        if (args.length > 0) {
+            System.exit(ProcessadorLote.executaLinhaDeComando(args));
+        }
+
         DetectorDefeitos janela = new DetectorDefeitos();
         janela.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         janela.setVisible(true);
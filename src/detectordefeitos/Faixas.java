@@ -0,0 +1,68 @@
+package detectordefeitos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/*Divide as linhas de uma imagem em faixas horizontais e processa cada
+ faixa em paralelo no pool comum de fork/join.  usada pelas etapas que
+ percorrem a imagem inteira e cujas faixas podem ser tratadas de forma
+ independente
+ */
+
+public class Faixas {
+
+    // Trabalho feito sobre as linhas [inicio, fim) de uma faixa
+    public interface Tarefa {
+        void executa(int faixa, int inicio, int fim);
+    }
+
+    /*Nmero de faixas para uma imagem com o nmero de linhas dado, de
+     forma que cada faixa tenha pelo menos minimoLinhas linhas
+     */
+    public static int numFaixas(int linhas, int minimoLinhas) {
+        int paralelismo = ForkJoinPool.commonPool().getParallelism();
+        return Math.max(1, Math.min(paralelismo, linhas / Math.max(1, minimoLinhas)));
+    }
+
+    // Primeira linha da faixa (a faixa seguinte comea onde esta termina)
+    public static int inicio(int faixa, int numFaixas, int linhas) {
+        return (int) ((long) linhas * faixa / numFaixas);
+    }
+
+    // Executa a tarefa para cada faixa e espera todas terminarem
+    public static void executa(int linhas, int numFaixas, final Tarefa tarefa) {
+        if (numFaixas <= 1) {
+            tarefa.executa(0, 0, linhas);
+            return;
+        }
+
+        List<Callable<Void>> tarefas = new ArrayList<Callable<Void>>();
+        for (int f = 0; f < numFaixas; f++) {
+            final int faixa = f;
+            final int inicio = inicio(f, numFaixas, linhas);
+            final int fim = inicio(f + 1, numFaixas, linhas);
+            tarefas.add(new Callable<Void>() {
+                public Void call() {
+                    tarefa.executa(faixa, inicio, fim);
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for (Future<Void> f : ForkJoinPool.commonPool().invokeAll(tarefas)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package detectordefeitos;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*Gravao das imagens processadas fora da thread que as produziu. A
+ codificao (PNG ou JPEG) custa tanto quanto a anlise da imagem; aqui
+ ela  feita por um pequeno grupo de threads de E/S, enquanto as threads
+ de processamento seguem para a prxima imagem.
+
+ A fila  limitada: com capacidade imagens esperando ou sendo gravadas,
+ grava() bloqueia at que uma delas termine, para que a memria usada
+ pelas imagens pendentes no cresa sem limite; tentaGravar() no espera
+ e recusa a imagem (para a thread da interface).
+
+ Os nomes dos arquivos so reservados por reserva(), que pode ser chamado
+ por vrias threads: dois pedidos nunca recebem o mesmo arquivo, e sem
+ sobrescrita um arquivo j existente tambm nunca  usado (o arquivo 
+ criado vazio na reserva). Cada imagem  gravada em um arquivo temporrio
+ movido sobre o reservado, de forma que no fica um arquivo pela metade.
+
+ fecha() espera o fim de todas as gravaes pendentes; se o programa for
+ encerrado antes (por exemplo, fechando a janela), ele  chamado na
+ finalizao da JVM
+ */
+
+public class GravadorImagens {
+
+    // Compresso rpida: o arquivo fica pouco maior que no nvel padro do ImageIO
+    static final int NIVEL_PNG_PADRAO = 1;
+    static final float QUALIDADE_JPEG_PADRAO = 0.9f;
+
+    private static final Metricas.Histograma T_GRAVACAO = Metricas.global().etapa("gravacao");
+
+    // Formato e compresso das imagens gravadas
+    public static final class Formato {
+        final String nome;
+        final float qualidade; // qualidade de compresso do ImageWriteParam (0 a 1)
+
+        private Formato(String nome, float qualidade) {
+            this.nome = nome;
+            this.qualidade = qualidade;
+        }
+
+        /*PNG com o nvel de compresso do deflate (0 a 9). Os nveis baixos
+         geram arquivos um pouco maiores, bem mais rpido
+         */
+        public static Formato png(int nivel) {
+            if (nivel < 0 || nivel > 9) throw new IllegalArgumentException("Nvel de compresso PNG: " + nivel);
+            return new Formato("png", 1f - nivel / 9f);
+        }
+
+        // JPEG com a qualidade dada (0 a 1)
+        public static Formato jpeg(float qualidade) {
+            if (!(qualidade >= 0 && qualidade <= 1)) throw new IllegalArgumentException("Qualidade JPEG: " + qualidade);
+            return new Formato("jpeg", qualidade);
+        }
+
+        // "png", "png:nivel", "jpeg" ou "jpeg:qualidade" (tambm "jpg")
+        public static Formato de(String descricao) {
+            String[] partes = descricao.toLowerCase().split(":", 2);
+            if (partes[0].equals("png")) {
+                return partes.length > 1 ? png(Integer.parseInt(partes[1])) : PADRAO;
+            } else if (partes[0].equals("jpeg") || partes[0].equals("jpg")) {
+                return jpeg(partes.length > 1 ? Float.parseFloat(partes[1]) : QUALIDADE_JPEG_PADRAO);
+            }
+            throw new IllegalArgumentException("Formato de sada: " + descricao);
+        }
+
+        public String extensao() {
+            return nome.equals("jpeg") ? ".jpg" : "." + nome;
+        }
+
+        public String toString() {
+            return nome + (nome.equals("png") ? " " + Math.round(9 * (1 - qualidade)) : " " + qualidade);
+        }
+    }
+
+    public static final Formato PADRAO = Formato.png(NIVEL_PNG_PADRAO);
+
+    /*Avisada na thread de E/S quando a gravao de uma imagem termina, com
+     sucesso ou no. A partir da a imagem pode ser reaproveitada
+     (ConversorImagem.devolve)
+     */
+    public interface Conclusao {
+        void concluida(File arquivo, boolean gravada);
+    }
+
+    private final Formato formato;
+    private final boolean sobrescreve;
+    private final ExecutorService executor;
+    private final Semaphore vagas;
+    private final Thread finalizacao;
+
+    // Arquivos j reservados por este gravador
+    private final Set<File> reservados = new HashSet<File>();
+
+    private final AtomicInteger falhas = new AtomicInteger();
+    private volatile boolean fechado;
+
+    /*Com sobrescreve, os arquivos existentes de execues anteriores so
+     substitudos (apenas os reservados por este gravador so evitados);
+     sem, um novo nome  escolhido
+     */
+    GravadorImagens(Formato formato, int threads, int capacidade, boolean sobrescreve) {
+        this.formato = formato;
+        this.sobrescreve = sobrescreve;
+        this.vagas = new Semaphore(Math.max(1, capacidade));
+
+        final AtomicInteger numero = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "gravador-imagens-" + numero.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        finalizacao = new Thread("gravador-imagens-finalizacao") {
+            public void run() {
+                fecha();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(finalizacao);
+    }
+
+    public Formato getFormato() {
+        return formato;
+    }
+
+    /*Reserva o arquivo <diretorio>/<base><extenso>, ou <base>_1, <base>_2...
+     se ele j tiver sido reservado (ou existir, sem sobrescrita)
+     */
+    public File reserva(File diretorio, String base) throws IOException {
+        if (!diretorio.isDirectory() && !diretorio.mkdirs() && !diretorio.isDirectory()) {
+            throw new IOException("No foi possvel criar o diretrio " + diretorio);
+        }
+
+        synchronized (reservados) {
+            for (int n = 0; ; n++) {
+                File arquivo = new File(diretorio, base + (n == 0 ? "" : "_" + n) + formato.extensao());
+                if (reservados.contains(arquivo)) continue;
+                if (!sobrescreve && !arquivo.createNewFile()) continue;
+                reservados.add(arquivo);
+                return arquivo;
+            }
+        }
+    }
+
+    /*Desfaz a reserva de um arquivo que no ser gravado, apagando o
+     arquivo vazio criado por reserva()
+     */
+    public void cancelaReserva(File arquivo) {
+        synchronized (reservados) {
+            reservados.remove(arquivo);
+        }
+        if (arquivo.isFile() && arquivo.length() == 0) arquivo.delete();
+    }
+
+    /*Enfileira a gravao da imagem no arquivo (em geral reservado com
+     reserva()), esperando se a fila estiver cheia. conclusao pode ser null
+     */
+    public void grava(BufferedImage imagem, File arquivo, Conclusao conclusao)
+            throws InterruptedException {
+        if (fechado) throw new IllegalStateException("Gravador fechado");
+        vagas.acquire();
+        enfileira(imagem, arquivo, conclusao);
+    }
+
+    /*Idem, sem esperar: retorna false, sem enfileirar a imagem, se a fila
+     estiver cheia
+     */
+    public boolean tentaGravar(BufferedImage imagem, File arquivo, Conclusao conclusao) {
+        if (fechado) throw new IllegalStateException("Gravador fechado");
+        if (!vagas.tryAcquire()) return false;
+        enfileira(imagem, arquivo, conclusao);
+        return true;
+    }
+
+    // Com a vaga j obtida
+    private void enfileira(final BufferedImage imagem, final File arquivo, final Conclusao conclusao) {
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    boolean gravada = false;
+                    try {
+                        long inicio = System.nanoTime();
+                        escreve(imagem, arquivo);
+                        T_GRAVACAO.registraDesde(inicio);
+                        gravada = true;
+                    } catch (Exception e) {
+                        falhas.incrementAndGet();
+                        System.err.println("Erro ao gravar " + arquivo + ": " + e);
+                        // No deixa o arquivo vazio criado na reserva
+                        if (arquivo.length() == 0) arquivo.delete();
+                    } finally {
+                        try {
+                            if (conclusao != null) conclusao.concluida(arquivo, gravada);
+                        } finally {
+                            vagas.release();
+                        }
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            vagas.release();
+            throw e;
+        }
+    }
+
+    private void escreve(BufferedImage imagem, File arquivo) throws IOException {
+        Iterator<ImageWriter> escritores = ImageIO.getImageWritersByFormatName(formato.nome);
+        if (!escritores.hasNext()) throw new IOException("Formato no suportado: " + formato.nome);
+        ImageWriter escritor = escritores.next();
+
+        File temporario = File.createTempFile(arquivo.getName(), ".tmp", arquivo.getAbsoluteFile().getParentFile());
+        try {
+            ImageWriteParam param = escritor.getDefaultWriteParam();
+            if (param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(formato.qualidade);
+            }
+
+            ImageOutputStream saida = ImageIO.createImageOutputStream(temporario);
+            try {
+                escritor.setOutput(saida);
+                escritor.write(null, new IIOImage(imagem, null, null), param);
+            } finally {
+                saida.close();
+            }
+            Files.move(temporario.toPath(), arquivo.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            escritor.dispose();
+            temporario.delete();
+        }
+    }
+
+    /*Espera o fim das gravaes pendentes e encerra as threads. Retorna o
+     nmero de imagens que no puderam ser gravadas
+     */
+    public int fecha() {
+        fechado = true;
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.err.println("Aguardando a gravao das imagens...");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (Thread.currentThread() != finalizacao) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(finalizacao);
+            } catch (IllegalStateException e) {
+                // A JVM j est sendo finalizada
+            }
+        }
+        return falhas.get();
+    }
+}
@@ -1,77 +1,153 @@
+package detectordefeitos;
+
 import org.opencv.core.Mat;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.geom.Rectangle2D;
-import java.util.Map;
-import java.util.TreeMap;
 
 
+/*Histograma de intensidades (0 a 255) de um canal de uma imagem, com os
+ limiares de Otsu e global calculados uma nica vez. No depende da
+ interface: a janela com o grfico s  aberta por mostra(), e o
+ processamento em lote usa os limiares para escolher o V_min de cada
+ imagem
+ */
+
 public class Histogram {
 
-    private int height, width;
     private int FILTER_VALUE = 25;  // We don't care about pixels that have intensity levels below this.
 
+    // Minimum number of rows per band when counting in parallel
+    private static final int MIN_LINHAS_FAIXA = 64;
+
+    private final int[] histogram;
+
+    // Thresholds, computed on first use
+    private Double otsuThreshold;
+    private Double globalThreshold;
 
+    /**
+     * Histogram of the first channel of an image
+     *
+     * @param grayScaleImage 8-bit image
+     */
     public Histogram(Mat grayScaleImage) {
+        this(grayScaleImage, 0);
+    }
 
-        JFrame frame = new JFrame();
+    /**
+     * Histogram of one channel of an image (for instance, channel 2 of an
+     * HSV image is V)
+     *
+     * @param image 8-bit image
+     * @param channel channel to count
+     */
+    public Histogram(Mat image, int channel) {
+        this.histogram = countChannel(image, channel);
+    }
 
-        this.height = grayScaleImage.height();
-        this.width = grayScaleImage.width();
+    /**
+     * @param histogram list of 256 elements containing the stem value for each pixel intensity
+     */
+    public Histogram(int[] histogram) {
+        this.histogram = histogram.clone();
+    }
 
-        Map<Integer, Integer> mapHistory = getMapFromData(grayScaleImage);
+    /**
+     * Opens a window with the histogram plot and both thresholds
+     */
+    public void mostra() {
+        JFrame frame = new JFrame();
         frame.setLayout(new BorderLayout());
-        frame.add(new JScrollPane(new Graph(mapHistory)));
+        frame.add(new JScrollPane(new Graph()));
         frame.pack();
         frame.setLocationRelativeTo(null);
         frame.setVisible(true);
     }
 
     /**
-     * Gets the data from a Mat image and converts it into a map, that captures
-     * the histogram in a key-value pair
+     * @return a copy of the 256 counts
+     */
+    public int[] getHistogram() {
+        return histogram.clone();
+    }
+
+    /**
+     * @return the Otsu threshold, ignoring intensities below FILTER_VALUE
+     */
+    public synchronized double getThresholdOtsu() {
+        if (otsuThreshold == null) {
+            otsuThreshold = getThresholdOtsuMethod(histogram);
+        }
+        return otsuThreshold;
+    }
+
+    /**
+     * @return the global threshold, ignoring intensities below FILTER_VALUE
+     * (as shown in the plot)
+     */
+    public synchronized double getThresholdGlobal() {
+        if (globalThreshold == null) {
+            globalThreshold = getThresholdGlobalThresholding(getWindowed(histogram));
+        }
+        return globalThreshold;
+    }
+
+    /**
+     * Counts the values of one channel in a single bulk read of the image.
+     * Large images are split in row bands counted in parallel, each into its
+     * own array, which are summed at the end.
      *
-     * @param grayScaleImage
-     * @return
+     * @param image 8-bit image
+     * @param channel channel to count
+     * @return list of 256 elements containing the stem value for each pixel intensity
      */
-    public Map<Integer, Integer> getMapFromData(Mat grayScaleImage) {
+    static int[] countChannel(Mat image, final int channel) {
+        if (!image.isContinuous()) {
+            image = image.clone();
+        }
 
-        int[][] data = new int[width][height];
-        for (int c = 0; c < width; c++) {
-            for (int r = 0; r < height; r++) {
-                data[c][r] = (int) (grayScaleImage.get(r, c)[0]);
-            }
+        final int rows = image.rows();
+        final int cols = image.cols();
+        final int channels = image.channels();
+        if (channel < 0 || channel >= channels) {
+            throw new IllegalArgumentException("Canal inexistente: " + channel);
         }
-        Map<Integer, Integer> mapHistory = new TreeMap<Integer, Integer>();
-        for (int c = 0; c < data.length; c++) {
-            for (int r = 0; r < data[c].length; r++) {
-                int value = data[c][r];
-                int amount = 0;
-                if (mapHistory.containsKey(value)) {
-                    amount = mapHistory.get(value);
-                    amount++;
-                } else {
-                    amount = 1;
+
+        final byte[] pixels = new byte[rows * cols * channels];
+        image.get(0, 0, pixels);
+
+        int bands = Faixas.numFaixas(rows, MIN_LINHAS_FAIXA);
+        final int[][] partial = new int[bands][256];
+        Faixas.executa(rows, bands, new Faixas.Tarefa() {
+            public void executa(int faixa, int inicio, int fim) {
+                int[] counts = partial[faixa];
+                int end = fim * cols * channels;
+                for (int i = inicio * cols * channels + channel; i < end; i += channels) {
+                    counts[pixels[i] & 0xff]++;
                 }
-                /*
-				 * if (value > 25) mapHistory.put(value, amount); else
-				 * mapHistory.put(value, 1);
-				 */
-                mapHistory.put(value, amount);
             }
-        }
-        return mapHistory;
-    }
+        });
 
-    public int[] convertFromMapToInt(Map<Integer, Integer> mapHistory) {
         int[] hist = new int[256];
-        for (Integer key : mapHistory.keySet()) {
-            hist[key.intValue()] = mapHistory.get(key);
+        for (int[] counts : partial) {
+            for (int v = 0; v < 256; v++) hist[v] += counts[v];
         }
         return hist;
     }
 
+    /**
+     * Copy of the histogram with the intensities below FILTER_VALUE cleared
+     */
+    private int[] getWindowed(int[] histogram) {
+        int[] windowSharp = getWindowSharp(FILTER_VALUE);
+        int[] windowed = new int[256];
+        for (int i = 0; i < 256; i++) {
+            windowed[i] = histogram[i] * windowSharp[i];
+        }
+        return windowed;
+    }
 
     /**
      * Average intensity of a histogram
@@ -82,31 +158,27 @@ public class Histogram {
     public double getAverageIntensity(int[] histogram) {
         int length = histogram.length;
         double averageIntensity;
-        int sum = 0, weightedSum = 0;
+        long sum = 0, weightedSum = 0;
         for (int i = 0; i < length; i++) {
             sum += histogram[i];
-            weightedSum += i * histogram[i];
+            weightedSum += (long) i * histogram[i];
         }
         averageIntensity = (1.0 * weightedSum) / sum;
 
-        // debug
-        System.out.println("TEST getAverageIntensity = " + averageIntensity);
-
         return averageIntensity;
     }
 
     public double getMeanGrayValue(int begin, int end, int[] histogram) {
         // gets the mean gray value for a specified range, inclusive.
 
-        int sum = 0, weightedSum = 0;
+        long sum = 0, weightedSum = 0;
         double meanGrayValue;
         for (int i = begin; i <= end; i++) {
             sum += histogram[i];
-            weightedSum += i * histogram[i];
+            weightedSum += (long) i * histogram[i];
         }
 
         meanGrayValue = 1.0 * weightedSum / sum;
-        System.out.println("DEBUG meanGrayValue = " + meanGrayValue);
         return meanGrayValue;
 
     }
@@ -211,30 +283,25 @@ public class Histogram {
 
     /**
      * Function that uses the OtsuMethod to generate a optimal threshold.
-     * Note that since this only work with two classes, there is an assumption that
-     * all the black pixels are excluded from the list
+     * Note that since this only work with two classes, the intensities below
+     * FILTER_VALUE (black pixels) are excluded from the list
      * @param histogram list of 256 elements containing the stem values for every pixel intensity
      * @return the threshold
      */
     public double getThresholdOtsuMethod(int[] histogram) {
 
-        // Clear low values for now
+        // Clear low values for now (on a copy; the argument is not modified)
         // Later, we want to attribute a smaller weight
         // double[] windowQuadratic = getWindowQuadratic(20, 0.01);
-        System.out.println("FILTER_VALUE = " + FILTER_VALUE);
-        int totalPixels = 0;
-        int[] windowSharp = getWindowSharp(FILTER_VALUE);
+        histogram = getWindowed(histogram);
+        long totalPixels = 0;
         for (int i = 0; i < 256; i++) {
-            histogram[i] = (int) Math
-                    .round(1.0 * histogram[i] * windowSharp[i]);
             totalPixels += histogram[i];
         }
 
 
         double u = getAverageIntensity(histogram); // average image intensity
 
-        System.out.println("DEBUG u value = " + u);
-
         double u1; // Class means
         double varMax = 0; // maximum intraclass variance = minimum interclass variance
         double q1, q2; // class probabilities
@@ -289,10 +356,7 @@ public class Histogram {
         private static final long serialVersionUID = 1L; // not sure
         protected static final int MIN_BAR_WIDTH = 4;
 
-        private Map<Integer, Integer> mapHistory; // Map that contains the key-value pairs for the histogram stem plot
-
-        public Graph(Map<Integer, Integer> mapHistory) {
-            this.mapHistory = mapHistory;
+        public Graph() {
             // int width = (mapHistory.size() * MIN_BAR_WIDTH) + 11;
             int width = 256 * MIN_BAR_WIDTH + 11;
             Dimension minSize = new Dimension(width, 128);
@@ -312,109 +376,94 @@ public class Histogram {
             int otsuThreshold, globalThreshold;
 
             super.paintComponent(g);
-            if (mapHistory != null) {
-                // Get the threshold via algorithm
-                int[] histogram = convertFromMapToInt(mapHistory);
+            // Thresholds are computed only on the first repaint
+            otsuThreshold = (int) getThresholdOtsu();
+            globalThreshold = (int) getThresholdGlobal();
+
+            // Dimension bookkeeping
+            int xOffset = 5;
+            int yOffset = 5;
+            int width = getWidth() - 1 - (xOffset * 2);
+            int height = getHeight() - 1 - (yOffset * 2);
+
+            Graphics2D g2d = (Graphics2D) g.create();
+            g2d.setColor(Color.DARK_GRAY);
+            g2d.drawRect(xOffset, yOffset, width, height);
+				/*
+				 * int barWidth = Math.max( MIN_BAR_WIDTH, (int)
+				 * Math.floor((float) width / (float) mapHistory.size()));
+				 */
 
-                otsuThreshold = (int) getThresholdOtsuMethod(histogram);
-                globalThreshold = (int) getThresholdGlobalThresholding(histogram);
+            int windowHeight = height / 2;
+            int barWidth = MIN_BAR_WIDTH;
+            // System.out.println("width = " + width + "; size = "
+            // + mapHistory.size() + "; barWidth = " + barWidth);
+            int maxValue = 0;
 
+            for (int value : histogram) {
+                maxValue = Math.max(maxValue, value);
+            }
 
-                System.out.println("DEBUG otsuThreshold = " + otsuThreshold);
-                System.out
-                        .println("DEBUG globalThreshold = " + globalThreshold);
+            int xPos = xOffset;
+            // int transformedThreshold = (int) ((float) threshold
+            // * (float) mapHistory.size() / 256.0);
+            int transformedThreshold = globalThreshold; // save some
+            // rewrites
+
+            for (int key = 0; key < 256; key++) {
+                int value = histogram[key];
+                int barHeight = Math
+                        .round(((float) value / (float) maxValue) * height);
+                g2d.setColor(new Color(key, key, key));
+
+                int yPos = height + yOffset - barHeight;
+
+                Rectangle2D bar = new Rectangle2D.Float(xPos, yPos,
+                        barWidth, barHeight);
+
+                if (transformedThreshold == (xPos - xOffset) / barWidth) {
+                    g2d.setColor(Color.RED);
+                    g2d.fill(bar);
+                } else if (otsuThreshold == (xPos - xOffset) / barWidth) {
+                    g2d.setColor(Color.GREEN);
+                    g2d.fill(bar);
+                } else
+                    g2d.fill(bar);
+                g2d.setColor(Color.DARK_GRAY);
 
-                // Dimension bookkeeping
-                int xOffset = 5;
-                int yOffset = 5;
-                int width = getWidth() - 1 - (xOffset * 2);
-                int height = getHeight() - 1 - (yOffset * 2);
+                g2d.draw(bar);
 
-                Graphics2D g2d = (Graphics2D) g.create();
-                g2d.setColor(Color.DARK_GRAY);
-                g2d.drawRect(xOffset, yOffset, width, height);
-				/*
-				 * int barWidth = Math.max( MIN_BAR_WIDTH, (int)
-				 * Math.floor((float) width / (float) mapHistory.size()));
-				 */
+                // Show the window used
+                g2d.setColor(Color.CYAN);
+                if (key > FILTER_VALUE)
+                    g2d.drawLine(xPos, windowHeight, xPos - barWidth,
+                            windowHeight);
+                else {
+                    if (key == FILTER_VALUE)
+                        g2d.drawLine(xPos, height - 2, xPos, windowHeight);
 
-                int windowHeight = height / 2;
-                int barWidth = MIN_BAR_WIDTH;
-                // System.out.println("width = " + width + "; size = "
-                // + mapHistory.size() + "; barWidth = " + barWidth);
-                int maxValue = 0;
+                    g2d.drawLine(xPos, height - 2, xPos - barWidth,
+                            height - 2);
 
-                for (Integer key : mapHistory.keySet()) {
-                    int value = mapHistory.get(key);
-                    maxValue = Math.max(maxValue, value);
                 }
 
-                int xPos = xOffset;
-                // int transformedThreshold = (int) ((float) threshold
-                // * (float) mapHistory.size() / 256.0);
-                int transformedThreshold = globalThreshold; // save some
-                // rewrites
-
-                for (int key = 0; key < 256; key++) {
-                    int value;
-                    if (mapHistory.containsKey(key)) {
-                        value = mapHistory.get(key);
-                    } else {
-                        value = 0;
-                    }
-                    int barHeight = Math
-                            .round(((float) value / (float) maxValue) * height);
-                    g2d.setColor(new Color(key, key, key));
-
-                    int yPos = height + yOffset - barHeight;
-
-                    Rectangle2D bar = new Rectangle2D.Float(xPos, yPos,
-                            barWidth, barHeight);
-
-                    if (transformedThreshold == (xPos - xOffset) / barWidth) {
-                        g2d.setColor(Color.RED);
-                        g2d.fill(bar);
-                    } else if (otsuThreshold == (xPos - xOffset) / barWidth) {
-                        g2d.setColor(Color.GREEN);
-                        g2d.fill(bar);
-                    } else
-                        g2d.fill(bar);
-                    g2d.setColor(Color.DARK_GRAY);
-
-                    g2d.draw(bar);
-
-                    // Show the window used
-                    g2d.setColor(Color.CYAN);
-                    if (key > FILTER_VALUE)
-                        g2d.drawLine(xPos, windowHeight, xPos - barWidth,
-                                windowHeight);
-                    else {
-                        if (key == FILTER_VALUE)
-                            g2d.drawLine(xPos, height - 2, xPos, windowHeight);
-
-                        g2d.drawLine(xPos, height - 2, xPos - barWidth,
-                                height - 2);
-
-                    }
-
-                    xPos += barWidth;
+                xPos += barWidth;
 
-                }
+            }
 
-                String threshValues1 = "Threshold from Otsu (green): "
-                        + otsuThreshold;
-                String threshValues2 = "Threshold from Global (red): "
-                        + globalThreshold;
-                String highlightWindow = "In cyan is the window to clear background";
+            String threshValues1 = "Threshold from Otsu (green): "
+                    + otsuThreshold;
+            String threshValues2 = "Threshold from Global (red): "
+                    + globalThreshold;
+            String highlightWindow = "In cyan is the window to clear background";
 
-                g2d.setColor(Color.BLACK);
-                g2d.drawString(threshValues1, width - 250, 20);
-                g2d.drawString(threshValues2, width - 250, 35);
-                g2d.drawString(highlightWindow, width - 250, 75);
+            g2d.setColor(Color.BLACK);
+            g2d.drawString(threshValues1, width - 250, 20);
+            g2d.drawString(threshValues2, width - 250, 35);
+            g2d.drawString(highlightWindow, width - 250, 75);
 
-                g2d.dispose();
+            g2d.dispose();
 
-            }
         }
     }
 }
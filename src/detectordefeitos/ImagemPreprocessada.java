@@ -0,0 +1,157 @@
+package detectordefeitos;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/*Resultado do pr-processamento de uma imagem (redimensionamento e
+ eliminao de rudo), nas escalas de cores usadas pelo restante do
+ processamento.
+
+ A binarizao s usa o canal V do HSV, que  o mximo dos trs canais.
+ Por isso, em vez de duas converses completas (HSV e tons de cinza), a
+ imagem suavizada  percorrida uma nica vez gerando apenas os planos
+ usados em seguida: o V, os tons de cinza, o histograma do V e, se a
+ janela de binarizao j for conhecida, a mscara. A imagem HSV
+ completa s  calculada se for pedida
+ */
+
+public class ImagemPreprocessada {
+
+    // Nmero mnimo de linhas por faixa na separao dos planos em paralelo
+    private static final int MINIMO_LINHAS_FAIXA = 64;
+
+    private final Mat inicial;
+    private final Mat v;
+    private final Mat gray;
+
+    // Calculados sob demanda, ou na separao dos planos
+    private Mat hsv;
+    private int[] histogramaV;
+    private Mat mascara;
+    private ThresholdJanelaV janela;
+
+    ImagemPreprocessada(Mat inicial, Mat v, Mat gray) {
+        this.inicial = inicial;
+        this.v = v;
+        this.gray = gray;
+    }
+
+    /*Gera os planos V e de tons de cinza e o histograma do V a partir da
+     imagem suavizada (3 canais), em uma nica passada. Se janela no for
+     null, a mscara binarizada  gerada na mesma passada
+     */
+    static ImagemPreprocessada separa(Mat inicial, ThresholdJanelaV janela) {
+        ImagemPreprocessada imagem = new ImagemPreprocessada(inicial,
+                new Mat(inicial.rows(), inicial.cols(), CvType.CV_8UC1),
+                new Mat(inicial.rows(), inicial.cols(), CvType.CV_8UC1));
+        imagem.separaPlanos(janela);
+        return imagem;
+    }
+
+    /*Refaz os planos depois que a imagem inicial foi alterada (cortes na
+     interface). Os Mats dos planos so mantidos e a imagem HSV, se j
+     tiver sido calculada,  descartada
+     */
+    public synchronized void atualiza() {
+        hsv = null;
+        separaPlanos(null);
+    }
+
+    private synchronized void separaPlanos(ThresholdJanelaV janela) {
+        Mat entrada = inicial.isContinuous() ? inicial : inicial.clone();
+        final int colunas = entrada.cols();
+        int linhas = entrada.rows();
+        int total = linhas * colunas;
+
+        final byte[] bgr = new byte[total * 3];
+        entrada.get(0, 0, bgr);
+
+        final byte[] planoV = new byte[total];
+        final byte[] planoGray = new byte[total];
+        final byte[] planoMascara = janela != null ? new byte[total] : null;
+        final ThresholdJanelaV tabela = janela;
+
+        int faixas = Faixas.numFaixas(linhas, MINIMO_LINHAS_FAIXA);
+        final int[][] parciais = new int[faixas][256];
+        Faixas.executa(linhas, faixas, new Faixas.Tarefa() {
+            public void executa(int faixa, int inicio, int fim) {
+                int[] histograma = parciais[faixa];
+                for (int i = inicio * colunas, p = i * 3, ultimo = fim * colunas; i < ultimo; i++, p += 3) {
+                    int c0 = bgr[p] & 0xff;
+                    int c1 = bgr[p + 1] & 0xff;
+                    int c2 = bgr[p + 2] & 0xff;
+
+                    // V do HSV: o maior dos trs canais, qualquer que seja a ordem
+                    int max = c0 > c1 ? c0 : c1;
+                    if (c2 > max) max = c2;
+                    planoV[i] = (byte) max;
+
+                    // Mesmos pesos e arredondamento de COLOR_RGB2GRAY (o primeiro byte  lido como R)
+                    planoGray[i] = (byte) ((c0 * 4899 + c1 * 9617 + c2 * 1868 + 8192) >> 14);
+
+                    histograma[max]++;
+                    if (planoMascara != null) planoMascara[i] = tabela.classifica(max);
+                }
+            }
+        });
+
+        int[] histograma = new int[256];
+        for (int[] parcial : parciais) {
+            for (int k = 0; k < 256; k++) histograma[k] += parcial[k];
+        }
+
+        v.put(0, 0, planoV);
+        gray.put(0, 0, planoGray);
+        histogramaV = histograma;
+
+        if (janela != null) {
+            mascara = new Mat(linhas, colunas, CvType.CV_8UC1);
+            mascara.put(0, 0, planoMascara);
+        } else {
+            mascara = null;
+        }
+        this.janela = janela;
+    }
+
+    public Mat getInicial() {
+        return inicial;
+    }
+
+    // Canal V do HSV (um canal)
+    public Mat getV() {
+        return v;
+    }
+
+    public Mat getGray() {
+        return gray;
+    }
+
+    // Imagem HSV completa, calculada apenas na primeira chamada
+    public synchronized Mat getHSV() {
+        if (hsv == null) {
+            hsv = new Mat();
+            Imgproc.cvtColor(inicial, hsv, Imgproc.COLOR_RGB2HSV);
+        }
+        return hsv;
+    }
+
+    // Histograma do canal V (256 posies), que no deve ser alterado
+    public synchronized int[] getHistogramaV() {
+        if (histogramaV == null) {
+            histogramaV = Histogram.countChannel(v, 0);
+        }
+        return histogramaV;
+    }
+
+    /*Mscara binarizada pela janela dada: a gerada junto com os planos,
+     se a janela for a mesma, ou uma nova, gerada a partir do plano V
+     */
+    public synchronized Mat getMascara(ThresholdJanelaV janela) {
+        if (mascara == null || janela != this.janela) {
+            mascara = janela.aplica(v);
+            this.janela = janela;
+        }
+        return mascara;
+    }
+}
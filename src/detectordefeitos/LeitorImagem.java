@@ -0,0 +1,138 @@
+package detectordefeitos;
+
+import org.opencv.core.Size;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/*Leitura de imagens j em resoluo reduzida. As fotos das cmeras tm
+ bem mais pixels do que os usados no processamento, que reduz a imagem
+ logo em seguida. Aqui o tamanho  lido do cabealho e o leitor 
+ configurado para decodificar apenas uma a cada n linhas e colunas
+ (subamostragem), com o maior n que ainda mantm a imagem maior ou igual
+ ao tamanho desejado. O ajuste final para o tamanho exato continua
+ sendo feito por ProcessadorImagem.
+
+ Se o formato no permitir a subamostragem, a imagem  lida inteira.
+ Para o processamento em mosaico, leLinhas() l apenas algumas linhas,
+ na resoluo original
+ */
+
+public class LeitorImagem {
+
+    // Imagem lida e o tamanho original do arquivo
+    public static final class Lida {
+        final BufferedImage imagem;
+        final int largura;
+        final int altura;
+
+        Lida(BufferedImage imagem, int largura, int altura) {
+            this.imagem = imagem;
+            this.largura = largura;
+            this.altura = altura;
+        }
+    }
+
+    // Tamanho desejado a partir do tamanho original
+    public interface Alvo {
+        Size tamanho(int largura, int altura);
+    }
+
+    public static Lida le(final File arquivo, final Alvo alvo) throws IOException {
+        try {
+            return comLeitor(arquivo, new Leitura<Lida>() {
+                public Lida le(ImageReader leitor) throws IOException {
+                    int largura = leitor.getWidth(0);
+                    int altura = leitor.getHeight(0);
+                    Size tamanho = alvo.tamanho(largura, altura);
+
+                    ImageReadParam param = leitor.getDefaultReadParam();
+                    int passo = passo(largura, altura, (int) tamanho.width, (int) tamanho.height);
+                    if (passo > 1) {
+                        param.setSourceSubsampling(passo, passo, 0, 0);
+                    }
+                    return new Lida(leitor.read(0, param), largura, altura);
+                }
+            });
+        } catch (RuntimeException e) {
+            // Leitor que no aceita subamostragem: l a imagem inteira
+            BufferedImage imagem = ImageIO.read(arquivo);
+            if (imagem == null) {
+                throw new IOException("Formato de imagem no suportado: " + arquivo);
+            }
+            return new Lida(imagem, imagem.getWidth(), imagem.getHeight());
+        }
+    }
+
+    // Tamanho original da imagem, lido apenas do cabealho
+    public static Size tamanho(File arquivo) throws IOException {
+        return comLeitor(arquivo, new Leitura<Size>() {
+            public Size le(ImageReader leitor) throws IOException {
+                return new Size(leitor.getWidth(0), leitor.getHeight(0));
+            }
+        });
+    }
+
+    /*Apenas as linhas [de, ate) da imagem, na resoluo original. Usado no
+     processamento em mosaico, para que a imagem inteira nunca seja
+     decodificada de uma vez. Em JPEG as linhas anteriores ainda precisam
+     ser decodificadas (e so descartadas), mas no ficam na memria
+     */
+    public static BufferedImage leLinhas(File arquivo, final int de, final int ate) throws IOException {
+        return comLeitor(arquivo, new Leitura<BufferedImage>() {
+            public BufferedImage le(ImageReader leitor) throws IOException {
+                ImageReadParam param = leitor.getDefaultReadParam();
+                param.setSourceRegion(new Rectangle(0, de, leitor.getWidth(0), ate - de));
+                return leitor.read(0, param);
+            }
+        });
+    }
+
+    // Leitura feita com o leitor j associado ao arquivo
+    private interface Leitura<T> {
+        T le(ImageReader leitor) throws IOException;
+    }
+
+    private static <T> T comLeitor(File arquivo, Leitura<T> leitura) throws IOException {
+        ImageInputStream entrada = ImageIO.createImageInputStream(arquivo);
+        if (entrada == null) {
+            throw new IOException("No foi possvel abrir " + arquivo);
+        }
+
+        try {
+            Iterator<ImageReader> leitores = ImageIO.getImageReaders(entrada);
+            if (!leitores.hasNext()) {
+                throw new IOException("Formato de imagem no suportado: " + arquivo);
+            }
+
+            ImageReader leitor = leitores.next();
+            try {
+                leitor.setInput(entrada, true, true);
+                return leitura.le(leitor);
+            } finally {
+                leitor.dispose();
+            }
+        } finally {
+            entrada.close();
+        }
+    }
+
+    /*Maior passo de subamostragem com o qual a imagem lida ainda tem pelo
+     menos o tamanho desejado (com passo n so lidas ceil(tamanho / n)
+     linhas e colunas)
+     */
+    static int passo(int largura, int altura, int larguraAlvo, int alturaAlvo) {
+        int passo = Math.max(1, Math.min(largura / Math.max(1, larguraAlvo), altura / Math.max(1, alturaAlvo)));
+        while (passo > 1 && ((largura + passo - 1) / passo < larguraAlvo || (altura + passo - 1) / passo < alturaAlvo)) {
+            passo--;
+        }
+        return passo;
+    }
+}
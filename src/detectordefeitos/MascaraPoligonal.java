@@ -0,0 +1,111 @@
+package detectordefeitos;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*Mscaras binrias (um canal, 0 ou 255) geradas a partir dos traos
+ desenhados pelo usurio na interface.
+
+ Os pontos do trao so guardados na ordem em que foram desenhados e
+ pontos consecutivos so vizinhos, exceto quando o boto do mouse foi
+ solto e pressionado de novo. O trao  ento dividido nesses saltos, e
+ cada parte  tratada como um polgono fechado (o ltimo ponto ligado
+ ao primeiro). Os polgonos so preenchidos por varredura de linhas
+ (Core.fillPoly), o que funciona tambm para regies no convexas, e a
+ mscara resultante  aplicada  imagem de uma s vez com setTo
+ */
+
+public class MascaraPoligonal {
+
+    private static final Scalar BRANCO = new Scalar(255);
+    private static final Scalar PRETO = new Scalar(0, 0, 0);
+
+    /*Divide o trao nos pontos em que ele no  contnuo (pontos
+     consecutivos que no so vizinhos), gerando um polgono por parte
+     */
+    static List<MatOfPoint> poligonos(Componente traco) {
+        List<MatOfPoint> poligonos = new ArrayList<MatOfPoint>();
+        int n = traco.tamanho();
+        int inicio = 0;
+        for (int i = 1; i <= n; i++) {
+            if (i == n || Math.abs(traco.getX(i) - traco.getX(i - 1)) > 1
+                    || Math.abs(traco.getY(i) - traco.getY(i - 1)) > 1) {
+                poligonos.add(poligono(traco, inicio, i));
+                inicio = i;
+            }
+        }
+        return poligonos;
+    }
+
+    private static MatOfPoint poligono(Componente traco, int inicio, int fim) {
+        int[] xy = new int[(fim - inicio) * 2];
+        for (int i = inicio, j = 0; i < fim; i++) {
+            xy[j++] = traco.getX(i);
+            xy[j++] = traco.getY(i);
+        }
+        MatOfPoint p = new MatOfPoint();
+        p.alloc(fim - inicio);
+        p.put(0, 0, xy);
+        return p;
+    }
+
+    /*Regio delimitada pelo trao: o interior de cada polgono e o
+     prprio trao (incluindo o segmento que fecha o polgono)
+     */
+    public static Mat regiao(Componente traco, int linhas, int colunas) {
+        Mat mascara = Mat.zeros(linhas, colunas, CvType.CV_8UC1);
+        List<MatOfPoint> poligonos = poligonos(traco);
+        /*Um polgono por chamada: com vrios polgonos na mesma chamada, as
+         partes sobrepostas se cancelariam (regra par-mpar)*/
+        for (MatOfPoint p : poligonos) {
+            List<MatOfPoint> um = new ArrayList<MatOfPoint>(1);
+            um.add(p);
+            Core.fillPoly(mascara, um, BRANCO);
+        }
+        Core.polylines(mascara, poligonos, true, BRANCO, 1);
+        return mascara;
+    }
+
+    /*Faixa de largura 2 * raio + 1 em torno do contorno dos polgonos: o
+     contorno  desenhado com um pixel de espessura e dilatado uma nica vez
+     */
+    public static Mat contorno(Componente traco, int linhas, int colunas, int raio) {
+        Mat mascara = Mat.zeros(linhas, colunas, CvType.CV_8UC1);
+        Core.polylines(mascara, poligonos(traco), true, BRANCO, 1);
+        if (raio > 0) {
+            Mat elemento = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE,
+                    new Size(2 * raio + 1, 2 * raio + 1));
+            Imgproc.dilate(mascara, mascara, elemento);
+        }
+        return mascara;
+    }
+
+    /*Pinta de preto a regio delimitada pelo trao. Devolve a mscara da
+     regio, ou null se o trao estiver vazio
+     */
+    public static Mat apagaDentro(Mat imagem, Componente traco) {
+        if (traco.tamanho() == 0) return null;
+        Mat regiao = regiao(traco, imagem.rows(), imagem.cols());
+        imagem.setTo(PRETO, regiao);
+        return regiao;
+    }
+
+    /*Pinta de preto tudo o que estiver fora da regio delimitada pelo
+     trao. Devolve a mscara da regio
+     */
+    public static Mat apagaFora(Mat imagem, Componente traco) {
+        Mat regiao = regiao(traco, imagem.rows(), imagem.cols());
+        Mat fora = new Mat();
+        Core.bitwise_not(regiao, fora);
+        imagem.setTo(PRETO, fora);
+        return regiao;
+    }
+}
@@ -0,0 +1,250 @@
+package detectordefeitos;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*Mscaras de um tipo de pea: a regio de interesse (o que fica fora
+ dela  apagado, como em PainelImagem.ApagaFora) e a regio excluda (o
+ que fica dentro dela  apagado, como em ApagaDetalhe). As duas so
+ guardadas na resoluo em que foram desenhadas, um byte por pixel (0
+ ou 255), e aplicadas a imagens de qualquer tamanho: para cada tamanho
+ usado, as mscaras so redimensionadas (vizinho mais prximo) uma nica
+ vez e combinadas na mscara dos pixels a apagar. So guardados os
+ ESCALAS tamanhos usados mais recentemente, para que um lote com fotos
+ na vertical e na horizontal no refaa as mscaras a cada troca.
+
+ Como nos cortes feitos  mo, a borda da regio excluda vira uma
+ fronteira falsa na imagem binarizada; apagaContorno() elimina uma faixa
+ em torno dela das fronteiras encontradas.
+
+ No arquivo, cada mscara  gravada em run-length: o nmero de corridas
+ e o comprimento de cada uma, alternando pixels apagados (0) e mantidos
+ (255) a partir de uma corrida de 0, linha aps linha. Os comprimentos
+ so gravados em base 128, em 1 a 5 bytes
+ */
+
+public class MascarasPeca {
+
+    // Raio da faixa eliminada das fronteiras em torno da regio excluda (como em ProcessadorImagem)
+    private static final int RAIO_CONTORNO = 3;
+
+    // Nmero de tamanhos de imagem cujas mscaras redimensionadas so guardadas
+    private static final int ESCALAS = 4;
+
+    private static final Scalar PRETO = new Scalar(0, 0, 0);
+    private static final Scalar BRANCO = new Scalar(255, 255, 255);
+
+    private final Mat regiao;
+    private final Mat exclusao;
+
+    // Mscaras nos ltimos tamanhos usados, pela chave linhas x colunas
+    private final LinkedHashMap<Long, Escala> escalas = new LinkedHashMap<Long, Escala>(8, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Long, Escala> mais_antiga) {
+            return size() > ESCALAS;
+        }
+    };
+
+    private static final class Escala {
+        final Mat apagar;
+        final Mat contorno; // null se no houver regio excluda
+
+        Escala(Mat apagar, Mat contorno) {
+            this.apagar = apagar;
+            this.contorno = contorno;
+        }
+    }
+
+    // Mscaras vazias: toda a imagem  de interesse e nada  excludo
+    MascarasPeca(int linhas, int colunas) {
+        this(new Mat(linhas, colunas, CvType.CV_8UC1, new Scalar(255)),
+                Mat.zeros(linhas, colunas, CvType.CV_8UC1));
+    }
+
+    private MascarasPeca(Mat regiao, Mat exclusao) {
+        this.regiao = regiao;
+        this.exclusao = exclusao;
+    }
+
+    public int linhas() {
+        return regiao.rows();
+    }
+
+    public int colunas() {
+        return regiao.cols();
+    }
+
+    // Cpia das mscaras no tamanho dado, que pode ser alterada sem afetar estas
+    public synchronized MascarasPeca copia(int linhas, int colunas) {
+        return new MascarasPeca(redimensiona(regiao, linhas, colunas), redimensiona(exclusao, linhas, colunas));
+    }
+
+    /*Restringe a regio de interesse aos pixels no nulos de dentro (no
+     tamanho destas mscaras)
+     */
+    public synchronized void restringe(Mat dentro) {
+        Core.bitwise_and(regiao, dentro, regiao);
+        escalas.clear();
+    }
+
+    // Exclui os pixels no nulos de fora (no tamanho destas mscaras)
+    public synchronized void exclui(Mat fora) {
+        Core.bitwise_or(exclusao, fora, exclusao);
+        escalas.clear();
+    }
+
+    /*Pinta de preto os pixels fora da regio de interesse ou dentro da
+     regio excluda
+     */
+    public void aplica(Mat imagem) {
+        aplica(imagem, 0, imagem.rows());
+    }
+
+    /*Idem, para as linhas [linhaInicial, linhaInicial + imagem.rows()) de
+     uma imagem com alturaTotal linhas (usado no processamento em mosaico)
+     */
+    public void aplica(Mat imagem, int linhaInicial, int alturaTotal) {
+        Mat apagar = escala(alturaTotal, imagem.cols()).apagar;
+        imagem.setTo(PRETO, apagar.submat(linhaInicial, linhaInicial + imagem.rows(), 0, imagem.cols()));
+    }
+
+    /*Apaga (pinta de branco) das fronteiras uma faixa em torno da borda da
+     regio excluda
+     */
+    public void apagaContorno(Mat fronteiras) {
+        apagaContorno(fronteiras, 0, fronteiras.rows());
+    }
+
+    public void apagaContorno(Mat fronteiras, int linhaInicial, int alturaTotal) {
+        Mat contorno = escala(alturaTotal, fronteiras.cols()).contorno;
+        if (contorno == null) return;
+        fronteiras.setTo(BRANCO, contorno.submat(linhaInicial, linhaInicial + fronteiras.rows(), 0, fronteiras.cols()));
+    }
+
+    private synchronized Escala escala(int linhas, int colunas) {
+        Long chave = ((long) linhas << 32) | colunas;
+        Escala escala = escalas.get(chave);
+        if (escala != null) return escala;
+
+        Mat apagar = new Mat();
+        Core.bitwise_not(redimensiona(regiao, linhas, colunas), apagar);
+        Mat excluida = redimensiona(exclusao, linhas, colunas);
+        Core.bitwise_or(apagar, excluida, apagar);
+
+        Mat contorno = null;
+        if (Core.countNonZero(excluida) > 0) {
+            contorno = new Mat();
+            Mat elemento = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE,
+                    new Size(2 * RAIO_CONTORNO + 1, 2 * RAIO_CONTORNO + 1));
+            Imgproc.morphologyEx(excluida, contorno, Imgproc.MORPH_GRADIENT, elemento);
+        }
+
+        escala = new Escala(apagar, contorno);
+        escalas.put(chave, escala);
+        return escala;
+    }
+
+    private static Mat redimensiona(Mat m, int linhas, int colunas) {
+        if (m.rows() == linhas && m.cols() == colunas) return m.clone();
+        Mat r = new Mat();
+        Imgproc.resize(m, r, new Size(colunas, linhas), 0, 0, Imgproc.INTER_NEAREST);
+        return r;
+    }
+
+    /* ********************************* */
+    /* RUN-LENGTH                        */
+    /* ********************************* */
+
+    // Linhas, colunas e as duas mscaras em run-length
+    synchronized void grava(DataOutputStream saida) throws IOException {
+        saida.writeInt(linhas());
+        saida.writeInt(colunas());
+        gravaCorridas(saida, regiao);
+        gravaCorridas(saida, exclusao);
+    }
+
+    static MascarasPeca le(DataInputStream entrada) throws IOException {
+        int linhas = entrada.readInt();
+        int colunas = entrada.readInt();
+        if (linhas <= 0 || colunas <= 0) {
+            throw new IOException("Tamanho de mscara invlido: " + linhas + "x" + colunas);
+        }
+        Mat regiao = leCorridas(entrada, linhas, colunas);
+        Mat exclusao = leCorridas(entrada, linhas, colunas);
+        return new MascarasPeca(regiao, exclusao);
+    }
+
+    private static void gravaCorridas(DataOutputStream saida, Mat mascara) throws IOException {
+        byte[] pixels = new byte[mascara.rows() * mascara.cols()];
+        mascara.get(0, 0, pixels);
+
+        // Comprimentos das corridas, a primeira de pixels nulos (possivelmente vazia)
+        int[] corridas = new int[16];
+        int n = 0;
+        boolean mantido = false;
+        int inicio = 0;
+        for (int i = 0; i <= pixels.length; i++) {
+            if (i == pixels.length || (pixels[i] != 0) != mantido) {
+                if (n == corridas.length) corridas = Arrays.copyOf(corridas, n * 2);
+                corridas[n++] = i - inicio;
+                inicio = i;
+                mantido = !mantido;
+            }
+        }
+
+        saida.writeInt(n);
+        for (int i = 0; i < n; i++) {
+            escreveComprimento(saida, corridas[i]);
+        }
+    }
+
+    private static Mat leCorridas(DataInputStream entrada, int linhas, int colunas) throws IOException {
+        byte[] pixels = new byte[linhas * colunas];
+        int n = entrada.readInt();
+        int p = 0;
+        for (int i = 0; i < n; i++) {
+            int comprimento = leComprimento(entrada);
+            if (comprimento > pixels.length - p) {
+                throw new IOException("Corridas maiores que a mscara");
+            }
+            if ((i & 1) == 1) Arrays.fill(pixels, p, p + comprimento, (byte) 255);
+            p += comprimento;
+        }
+        if (p != pixels.length) {
+            throw new IOException("Corridas menores que a mscara");
+        }
+
+        Mat mascara = new Mat(linhas, colunas, CvType.CV_8UC1);
+        mascara.put(0, 0, pixels);
+        return mascara;
+    }
+
+    // 7 bits por byte, o bit mais alto indicando que h mais bytes
+    private static void escreveComprimento(DataOutputStream saida, int valor) throws IOException {
+        while ((valor & ~0x7f) != 0) {
+            saida.writeByte((valor & 0x7f) | 0x80);
+            valor >>>= 7;
+        }
+        saida.writeByte(valor);
+    }
+
+    private static int leComprimento(DataInputStream entrada) throws IOException {
+        int valor = 0;
+        for (int deslocamento = 0; deslocamento < 35; deslocamento += 7) {
+            int b = entrada.readUnsignedByte();
+            valor |= (b & 0x7f) << deslocamento;
+            if ((b & 0x80) == 0) return valor;
+        }
+        throw new IOException("Comprimento de corrida invlido");
+    }
+}
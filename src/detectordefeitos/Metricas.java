@@ -0,0 +1,321 @@
+package detectordefeitos;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*Registro de mtricas do processamento: contadores e histogramas de
+ baixo custo que podem ser atualizados por vrias threads ao mesmo tempo.
+
+ Os histogramas usam faixas logartmicas (8 faixas por potncia de 2,
+ erro relativo de no mximo 12,5%) e permitem estimar percentis sem
+ guardar as amostras. O contedo pode ser gravado periodicamente em um
+ arquivo no formato texto do Prometheus ou em JSON (se o nome do arquivo
+ terminar em .json). O arquivo  escrito em um temporrio e depois
+ renomeado, de forma que quem o l nunca v um arquivo pela metade
+ */
+
+public class Metricas {
+
+    private static final Metricas global = new Metricas();
+
+    // Percentis exportados para cada histograma
+    private static final double[] PERCENTIS = {0.5, 0.9, 0.99};
+
+    private final Map<String, Contador> contadores = new TreeMap<String, Contador>();
+    private final Map<String, Histograma> histogramas = new TreeMap<String, Histograma>();
+
+    private ScheduledExecutorService exportador;
+
+    // Valores da ltima exportao, para o clculo de imagens por segundo
+    private long ultimaExportacao = System.nanoTime();
+    private long ultimasImagens;
+
+    public static Metricas global() {
+        return global;
+    }
+
+    // Contador monotnico
+    public static final class Contador {
+        private final String nome;
+        private final String ajuda;
+        private final LongAdder valor = new LongAdder();
+
+        Contador(String nome, String ajuda) {
+            this.nome = nome;
+            this.ajuda = ajuda;
+        }
+
+        public void incrementa() {
+            valor.increment();
+        }
+
+        public void soma(long n) {
+            valor.add(n);
+        }
+
+        public long getValor() {
+            return valor.sum();
+        }
+    }
+
+    /*Histograma de valores inteiros no negativos. Os valores so
+     exportados divididos pela escala (1e9 para tempos em nanossegundos
+     exportados em segundos)
+     */
+    public static final class Histograma {
+        private static final int SUBFAIXAS_BITS = 3;
+        private static final int SUBFAIXAS = 1 << SUBFAIXAS_BITS;
+
+        private final String nome;
+        private final String rotulo;
+        private final String ajuda;
+        private final double escala;
+
+        private final AtomicLongArray faixas = new AtomicLongArray(64 * SUBFAIXAS);
+        private final LongAdder contagem = new LongAdder();
+        private final LongAdder soma = new LongAdder();
+
+        Histograma(String nome, String rotulo, String ajuda, double escala) {
+            this.nome = nome;
+            this.rotulo = rotulo;
+            this.ajuda = ajuda;
+            this.escala = escala;
+        }
+
+        public void registra(long valor) {
+            if (valor < 0) valor = 0;
+            faixas.incrementAndGet(faixa(valor));
+            contagem.increment();
+            soma.add(valor);
+        }
+
+        // Registra o tempo desde inicio (System.nanoTime) e devolve o instante atual
+        public long registraDesde(long inicio) {
+            long agora = System.nanoTime();
+            registra(agora - inicio);
+            return agora;
+        }
+
+        /*Valores menores que SUBFAIXAS tm uma faixa cada um; os demais
+         caem na subfaixa dada pelos bits seguintes ao mais significativo
+         */
+        static int faixa(long valor) {
+            if (valor < SUBFAIXAS) return (int) valor;
+            int expoente = 63 - Long.numberOfLeadingZeros(valor);
+            int sub = (int) (valor >>> (expoente - SUBFAIXAS_BITS)) & (SUBFAIXAS - 1);
+            return (expoente - SUBFAIXAS_BITS + 1) * SUBFAIXAS + sub;
+        }
+
+        // Maior valor que cai na faixa dada
+        static long limiteSuperior(int faixa) {
+            if (faixa < SUBFAIXAS) return faixa;
+            int expoente = faixa / SUBFAIXAS + SUBFAIXAS_BITS - 1;
+            long sub = faixa % SUBFAIXAS;
+            long inicio = (1L << expoente) + (sub << (expoente - SUBFAIXAS_BITS));
+            return inicio + (1L << (expoente - SUBFAIXAS_BITS)) - 1;
+        }
+
+        public long getContagem() {
+            return contagem.sum();
+        }
+
+        public double getSoma() {
+            return soma.sum() / escala;
+        }
+
+        // Estimativa do percentil p (entre 0 e 1), na escala de exportao
+        public double percentil(double p) {
+            long[] copia = new long[faixas.length()];
+            long total = 0;
+            for (int i = 0; i < copia.length; i++) {
+                copia[i] = faixas.get(i);
+                total += copia[i];
+            }
+            if (total == 0) return 0;
+
+            long posicao = (long) Math.ceil(p * total);
+            long acumulado = 0;
+            for (int i = 0; i < copia.length; i++) {
+                acumulado += copia[i];
+                if (acumulado >= posicao) return limiteSuperior(i) / escala;
+            }
+            return limiteSuperior(copia.length - 1) / escala;
+        }
+    }
+
+    public synchronized Contador contador(String nome, String ajuda) {
+        Contador c = contadores.get(nome);
+        if (c == null) {
+            c = new Contador(nome, ajuda);
+            contadores.put(nome, c);
+        }
+        return c;
+    }
+
+    public Histograma histograma(String nome, String ajuda) {
+        return histograma(nome, null, ajuda, 1);
+    }
+
+    /*Histograma identificado por nome e por um rtulo opcional (por
+     exemplo etapa="fronteiras")
+     */
+    public synchronized Histograma histograma(String nome, String rotulo, String ajuda, double escala) {
+        String chave = rotulo == null ? nome : nome + "{" + rotulo + "}";
+        Histograma h = histogramas.get(chave);
+        if (h == null) {
+            h = new Histograma(nome, rotulo, ajuda, escala);
+            histogramas.put(chave, h);
+        }
+        return h;
+    }
+
+    // Histograma do tempo de uma etapa do processamento, exportado em segundos
+    public Histograma etapa(String etapa) {
+        return histograma("detector_etapa_segundos", "etapa=\"" + etapa + "\"",
+                "Tempo de cada etapa do processamento de uma imagem", 1e9);
+    }
+
+    /* ********************************* */
+    /* EXPORTAO                        */
+    /* ********************************* */
+
+    /*Grava as mtricas no arquivo a cada periodoSegundos, em uma thread
+     de fundo, at que pararExportacao seja chamado
+     */
+    public synchronized void iniciaExportacao(final File arquivo, long periodoSegundos) {
+        pararExportacao(null);
+        exportador = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "exportador-metricas");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        exportador.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                try {
+                    grava(arquivo);
+                } catch (IOException e) {
+                    System.err.println("Erro ao gravar as mtricas em " + arquivo + ": " + e);
+                }
+            }
+        }, periodoSegundos, periodoSegundos, TimeUnit.SECONDS);
+    }
+
+    // Interrompe a exportao peridica e, se arquivo no for nulo, grava uma ltima vez
+    public synchronized void pararExportacao(File arquivo) {
+        if (exportador != null) {
+            exportador.shutdownNow();
+            exportador = null;
+        }
+        if (arquivo != null) {
+            try {
+                grava(arquivo);
+            } catch (IOException e) {
+                System.err.println("Erro ao gravar as mtricas em " + arquivo + ": " + e);
+            }
+        }
+    }
+
+    public synchronized void grava(File arquivo) throws IOException {
+        String texto = arquivo.getName().toLowerCase().endsWith(".json") ? formataJson() : formataPrometheus();
+
+        File diretorio = arquivo.getAbsoluteFile().getParentFile();
+        File temporario = File.createTempFile(arquivo.getName(), ".tmp", diretorio);
+        Writer w = new OutputStreamWriter(new FileOutputStream(temporario), Charset.forName("UTF-8"));
+        try {
+            w.write(texto);
+        } finally {
+            w.close();
+        }
+        Files.move(temporario.toPath(), arquivo.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Imagens por segundo desde a exportao anterior
+    private double taxaImagens() {
+        long agora = System.nanoTime();
+        long imagens = contador("detector_imagens_total", "Imagens processadas").getValor();
+        double taxa = agora > ultimaExportacao ? (imagens - ultimasImagens) * 1e9 / (agora - ultimaExportacao) : 0;
+        ultimaExportacao = agora;
+        ultimasImagens = imagens;
+        return taxa;
+    }
+
+    synchronized String formataPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        for (Contador c : contadores.values()) {
+            sb.append("# HELP ").append(c.nome).append(' ').append(c.ajuda).append('\n');
+            sb.append("# TYPE ").append(c.nome).append(" counter\n");
+            sb.append(c.nome).append(' ').append(c.getValor()).append('\n');
+        }
+
+        sb.append("# HELP detector_imagens_por_segundo Imagens processadas por segundo desde a gravao anterior\n");
+        sb.append("# TYPE detector_imagens_por_segundo gauge\n");
+        sb.append("detector_imagens_por_segundo ").append(numero(taxaImagens())).append('\n');
+
+        String familia = null;
+        for (Histograma h : histogramas.values()) {
+            if (!h.nome.equals(familia)) {
+                familia = h.nome;
+                sb.append("# HELP ").append(h.nome).append(' ').append(h.ajuda).append('\n');
+                sb.append("# TYPE ").append(h.nome).append(" summary\n");
+            }
+            String rotulos = h.rotulo == null ? "" : h.rotulo + ",";
+            for (double p : PERCENTIS) {
+                sb.append(h.nome).append('{').append(rotulos).append("quantile=\"").append(p).append("\"} ");
+                sb.append(numero(h.percentil(p))).append('\n');
+            }
+            String sufixo = h.rotulo == null ? "" : "{" + h.rotulo + "}";
+            sb.append(h.nome).append("_sum").append(sufixo).append(' ').append(numero(h.getSoma())).append('\n');
+            sb.append(h.nome).append("_count").append(sufixo).append(' ').append(h.getContagem()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    synchronized String formataJson() {
+        StringBuilder sb = new StringBuilder("{\n");
+        List<String> itens = new ArrayList<String>();
+        for (Contador c : contadores.values()) {
+            itens.add("  \"" + c.nome + "\": " + c.getValor());
+        }
+        itens.add("  \"detector_imagens_por_segundo\": " + numero(taxaImagens()));
+        for (Map.Entry<String, Histograma> e : histogramas.entrySet()) {
+            Histograma h = e.getValue();
+            StringBuilder item = new StringBuilder();
+            item.append("  \"").append(e.getKey().replace("\"", "\\\"")).append("\": {");
+            item.append("\"count\": ").append(h.getContagem());
+            item.append(", \"sum\": ").append(numero(h.getSoma()));
+            for (double p : PERCENTIS) {
+                item.append(", \"p").append((int) Math.round(p * 100)).append("\": ").append(numero(h.percentil(p)));
+            }
+            item.append('}');
+            itens.add(item.toString());
+        }
+        for (int i = 0; i < itens.size(); i++) {
+            sb.append(itens.get(i)).append(i + 1 < itens.size() ? ",\n" : "\n");
+        }
+        return sb.append("}\n").toString();
+    }
+
+    private static String numero(double valor) {
+        return String.format(Locale.ROOT, "%.6g", valor);
+    }
+}
@@ -1,3 +1,5 @@
+package detectordefeitos;
+
 import javax.swing.*;
 import java.awt.image.BufferedImage;
 
@@ -1,19 +1,14 @@
-import org.opencv.core.CvType;
+package detectordefeitos;
+
 import org.opencv.core.Mat;
-import org.opencv.core.Size;
-import org.opencv.imgproc.Imgproc;
 
-import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
 
 @SuppressWarnings("serial")
 /*Painel de exibio de imagem.
@@ -38,10 +33,15 @@ public class PainelImagem extends JPanel {
 	/* Imagem exibida de forma tratvel pelo Opencv em diversas escalas de cores */
 
     private Mat imagem_inicial;
-    private Mat imagem_HSV;
-    private Mat imagem_gray;
     private Mat imagem_canny;
 
+    // Planos gerados no pr-processamento (V, tons de cinza e HSV sob demanda)
+    private ImagemPreprocessada imagem;
+
+    /*Mscaras aplicadas  imagem exibida: as salvas para o tipo de pea
+    e os cortes feitos desde que ela foi aberta*/
+    private MascarasPeca mascaras;
+
     /*Variveis que dizem se estamos desenhando no momento e se
     estamos fazendo um corte de eliminao de detalhes ou de
     seleo de rea de interesse
@@ -52,6 +52,9 @@ public class PainelImagem extends JPanel {
 
     // Processador de imagens
     private ProcessadorImagem processador;
+
+    // Etapas do ltimo processamento, reaproveitadas quando s parte dos parmetros muda
+    private ProcessamentoIncremental incremental;
     
     /*Mtodos para retornar a imagem a ser exibida de forma tratvel pelo Opencv
      em diversas escalas de cores
@@ -61,18 +64,37 @@ public class PainelImagem extends JPanel {
         return imagem_inicial;
     }
 
+    //A verso em HSV s  calculada quando pedida
     public Mat retornaImagemHSV() {
-        return imagem_HSV;
+        return imagem != null ? imagem.getHSV() : null;
+    }
+
+    //Canal V do HSV, o nico usado na binarizao
+    public Mat retornaImagemV() {
+        return imagem != null ? imagem.getV() : null;
     }
 
     public Mat retornaImagemGray() {
-        return imagem_gray;
+        return imagem != null ? imagem.getGray() : null;
     }
 
     public Mat retornaImagemCanny() {
+        if (imagem_canny == null && imagem_inicial != null) {
+            imagem_canny = imagem_inicial.clone();
+        }
         return imagem_canny;
     }
 
+    public ProcessadorImagem getProcessador() {
+        return processador;
+    }
+
+    /*Etapas do ltimo processamento, que devem ser reaproveitadas pelo
+    processamento feito fora do painel*/
+    public ProcessamentoIncremental getIncremental() {
+        return incremental;
+    }
+
     //Mtodos para retornar os cortes de detalhes e de seleo
     public Componente getCorte() {
         return this.forma_geometrica;
@@ -82,6 +104,11 @@ public class PainelImagem extends JPanel {
         return this.selecao;
     }
 
+    //Mscaras aplicadas  imagem exibida, que podem ser salvas para o tipo de pea
+    public MascarasPeca getMascaras() {
+        return mascaras;
+    }
+
     /***************************
      * *** FUNES BLACK BOX ****
      ***************************/
@@ -99,19 +126,6 @@ public class PainelImagem extends JPanel {
         return true;
     }
 
-    /* Funo para converter uma imagem Mat do Opencv em uma BufferedImage */
-    public BufferedImage converteMatBufferedImage(Mat input, boolean colorido) {
-        byte[] data = new byte[input.rows() * input.cols() * (int) (input.elemSize())];
-        input.get(0, 0, data);
-
-        BufferedImage image = new BufferedImage(input.cols(), input.rows(), BufferedImage.TYPE_BYTE_GRAY);
-        if (colorido) {
-            image = new BufferedImage(input.cols(), input.rows(), BufferedImage.TYPE_3BYTE_BGR);
-        }
-        image.getRaster().setDataElements(0, 0, input.cols(), input.rows(), data);
-        return image;
-    }
-
     //Construtor da classe PainelImagem
     public PainelImagem() {
 
@@ -119,6 +133,7 @@ public class PainelImagem extends JPanel {
         seleciona = true;
 
         processador = new ProcessadorImagem();
+        incremental = new ProcessamentoIncremental(processador);
 
         setBorder(BorderFactory.createLineBorder(Color.black));
 
@@ -220,92 +235,14 @@ public class PainelImagem extends JPanel {
     }
 
     /*Cdigo para a eliminao de detalhes*/
-    //Pinta de preto quando for retirado
-    public void ApagaDetalhe(Mat input, Componente borda) {
-        int cols = input.cols();
-        int lin = input.rows();
-
-        for (int i = 0; i < cols; i++) {
-            int state = 0;
-            ArrayList<org.opencv.core.Point> pra_apagar = new ArrayList<org.opencv.core.Point>();
-            ArrayList<org.opencv.core.Point> reserva = new ArrayList<org.opencv.core.Point>();
-            for (int j = 0; j < lin; j++) {
-                org.opencv.core.Point k = new org.opencv.core.Point(i, j);
-                if (borda.hasPoint(k) && state == 0) {
-                    pra_apagar.add(k);
-                    state = 1;
-                } else if (!borda.hasPoint(k) && state == 1) {
-                    state = 2;
-                } else if (borda.hasPoint(k) && state == 2) {
-                    pra_apagar.add(k);
-                    state = 3;
-                } else if (!borda.hasPoint(k) && state == 3) {
-                    reserva.add(k);
-                } else if (borda.hasPoint(k) && state == 3) {
-                    pra_apagar.add(k);
-                    for (org.opencv.core.Point bc : reserva) pra_apagar.add(bc);
-                }
-
-                if (state == 2) {
-                    pra_apagar.add(k);
-                }
-            }
-            if (state == 3) {
-                for (org.opencv.core.Point k : pra_apagar) {
-                    double cor[] = {0, 0, 0};
-                    input.put((int) k.y, (int) k.x, cor);
-                }
-            }
-        }
-
-
+    //Pinta de preto a regio delimitada pelo corte e devolve a sua mscara (ver MascaraPoligonal)
+    public Mat ApagaDetalhe(Mat input, Componente borda) {
+        return MascaraPoligonal.apagaDentro(input, borda);
     }
 
     /*Cdigo para eliminar as partes fora da regio de interesse*/
-    public void ApagaFora(Mat input, Componente borda) {
-        int cols = input.cols();
-        int lin = input.rows();
-
-        for (int i = 0; i < cols; i++) {
-            int state = 0;
-            HashMap<org.opencv.core.Point, Boolean> pra_nao_apagar = new HashMap<org.opencv.core.Point, Boolean>();
-            ArrayList<org.opencv.core.Point> reserva = new ArrayList<org.opencv.core.Point>();
-            ArrayList<org.opencv.core.Point> reserva2 = new ArrayList<org.opencv.core.Point>();
-            for (int j = 0; j < lin; j++) {
-                org.opencv.core.Point k = new org.opencv.core.Point(i, j);
-                if (borda.hasPoint(k) && state == 0) {
-                    pra_nao_apagar.put(k, true);
-                    state = 1;
-                } else if (!borda.hasPoint(k) && state == 1) {
-                    state = 2;
-                } else if (borda.hasPoint(k) && state == 2) {
-                    pra_nao_apagar.put(k, true);
-                    for (org.opencv.core.Point bc : reserva2) pra_nao_apagar.put(bc, true);
-                    state = 3;
-                } else if (!borda.hasPoint(k) && state == 3) {
-                    reserva.add(k);
-                } else if (borda.hasPoint(k) && state == 3) {
-                    pra_nao_apagar.put(k, true);
-                    for (org.opencv.core.Point bc : reserva) pra_nao_apagar.put(bc, true);
-                }
-
-                if (state == 2) {
-                    reserva2.add(k);
-                }
-
-
-            }
-
-            for (int j = 0; j < lin; j++) {
-                org.opencv.core.Point b = new org.opencv.core.Point(i, j);
-                if (pra_nao_apagar.containsKey(b)) {
-
-                } else {
-                    double cor[] = {0, 0, 0};
-                    input.put((int) b.y, (int) b.x, cor);
-                }
-            }
-        }
+    public Mat ApagaFora(Mat input, Componente borda) {
+        return MascaraPoligonal.apagaFora(input, borda);
     }
 
     /*Cdigo que desenha a imagem sendo exibida e eventualmente o corte
@@ -316,14 +253,14 @@ public class PainelImagem extends JPanel {
             g.drawImage(Display, 0, 0, this);
 
             if (retira) {
-                for (org.opencv.core.Point k : forma_geometrica.getCorpo()) {
-                    g.setColor(Color.RED);
-                    g.fillRect((int) k.x, (int) k.y, 1, 1);
+                g.setColor(Color.RED);
+                for (int i = 0; i < forma_geometrica.tamanho(); i++) {
+                    g.fillRect(forma_geometrica.getX(i), forma_geometrica.getY(i), 1, 1);
                 }
 
-                for (org.opencv.core.Point k : selecao.getCorpo()) {
-                    g.setColor(Color.BLUE);
-                    g.fillRect((int) k.x, (int) k.y, 1, 1);
+                g.setColor(Color.BLUE);
+                for (int i = 0; i < selecao.tamanho(); i++) {
+                    g.fillRect(selecao.getX(i), selecao.getY(i), 1, 1);
                 }
             }
         }
@@ -335,10 +272,11 @@ public class PainelImagem extends JPanel {
     public void atualizaImagemCorte() {
         if (imagem_inicial != null) {
             processador.setCorte(forma_geometrica);
-            ApagaDetalhe(imagem_inicial, forma_geometrica);
-            Imgproc.cvtColor(imagem_inicial, this.imagem_HSV, Imgproc.COLOR_RGB2HSV);
-            Imgproc.cvtColor(imagem_inicial, this.imagem_gray, Imgproc.COLOR_RGB2GRAY);
-            BufferedImage display_mat = converteMatBufferedImage(imagem_inicial, true);
+            Mat regiao = ApagaDetalhe(imagem_inicial, forma_geometrica);
+            if (regiao != null) mascaras.exclui(regiao);
+            imagem.atualiza();
+            incremental.invalida();
+            BufferedImage display_mat = ConversorImagem.paraBufferedImage(imagem_inicial);
             Display = new ImageIcon(display_mat).getImage();
             podeDesenhar(false, true);
             forma_geometrica = new Componente();
@@ -351,10 +289,10 @@ public class PainelImagem extends JPanel {
     //Atualiza a imagem exibida diante de uma seleo de regio de interesse
     public void atualizaImagemProcessamento() {
         if (imagem_inicial != null) {
-            ApagaFora(imagem_inicial, selecao);
-            Imgproc.cvtColor(imagem_inicial, this.imagem_HSV, Imgproc.COLOR_RGB2HSV);
-            Imgproc.cvtColor(imagem_inicial, this.imagem_gray, Imgproc.COLOR_RGB2GRAY);
-            BufferedImage display_mat = converteMatBufferedImage(imagem_inicial, true);
+            mascaras.restringe(ApagaFora(imagem_inicial, selecao));
+            imagem.atualiza();
+            incremental.invalida();
+            BufferedImage display_mat = ConversorImagem.paraBufferedImage(imagem_inicial);
             Display = new ImageIcon(display_mat).getImage();
             podeDesenhar(false, true);
             selecao = new Componente();
@@ -373,9 +311,7 @@ public class PainelImagem extends JPanel {
                                            double curvMax,
                                            double sigma, double distInf) {
 
-        BufferedImage img = converteMatBufferedImage(input, true);
-
-        BufferedImage returnImg = processador.processImage(img, curvMin,
+        BufferedImage returnImg = processador.processImage(input, curvMin,
                 curvMax, sigma, distInf);
         Display = new ImageIcon(returnImg).getImage();
         repaint();
@@ -383,34 +319,39 @@ public class PainelImagem extends JPanel {
         return returnImg;
     }
 
+    //Exibe uma imagem calculada fora do painel (mscara ou resultado)
+    public void exibe(BufferedImage img) {
+        Display = new ImageIcon(img).getImage();
+        repaint();
+    }
+
     //Atualiza a imagem a ser exibida
     public void abreImagem(File a) throws IOException {
+        abreImagem(a, null);
+    }
 
-        // Procedimento para leitura da imagem -- MACACO -- CAGAVEL
-        BufferedImage img = ImageIO.read(a);
-        byte[] data = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
-        this.imagem_inicial = new Mat(img.getHeight(), img.getWidth(), CvType.CV_8UC3);
-        this.imagem_inicial.put(0, 0, data);
-
-        // *** MODIFICACAO DO TAMANHO DA IMAGEM ***
-        imagem_inicial = processador.scaleImage(imagem_inicial);
-        // Imgproc.resize(imagem_inicial, imagem_inicial, new Size(800, 800));
-
-        // *** ELIMINACAO DO RUIDO ***
-        Imgproc.GaussianBlur(imagem_inicial, imagem_inicial, new Size(5, 5),
-                0.8);
+    /*Idem, aplicando as mscaras salvas para o tipo de pea (se no
+    forem null)*/
+    public void abreImagem(File a, MascarasPeca salvas) throws IOException {
 
-        this.imagem_HSV = imagem_inicial.clone();
-        this.imagem_gray = imagem_inicial.clone();
-        this.imagem_canny = imagem_inicial.clone();
+        this.imagem = processador.abreImagem(a);
 
-        Imgproc.cvtColor(imagem_inicial, this.imagem_HSV, Imgproc.COLOR_RGB2HSV);
-        Imgproc.cvtColor(imagem_inicial, this.imagem_gray,
-                Imgproc.COLOR_RGB2GRAY);
+        this.imagem_inicial = imagem.getInicial();
+        this.imagem_canny = null;
 
+        //Os cortes da imagem anterior no valem para esta
+        processador.setCorte(new Componente());
+        processador.setMascaras(salvas);
+        if (salvas != null) {
+            salvas.aplica(imagem_inicial);
+            imagem.atualiza();
+            mascaras = salvas.copia(imagem_inicial.rows(), imagem_inicial.cols());
+        } else {
+            mascaras = new MascarasPeca(imagem_inicial.rows(), imagem_inicial.cols());
+        }
+        incremental.invalida();
 
-        BufferedImage display_mat = converteMatBufferedImage(imagem_inicial,
-                true);
+        BufferedImage display_mat = ConversorImagem.paraBufferedImage(imagem_inicial);
         Display = new ImageIcon(display_mat).getImage(); // Ainda nao sei o que
         // isso faz
 
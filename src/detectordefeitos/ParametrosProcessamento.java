@@ -0,0 +1,52 @@
+package detectordefeitos;
+
+/*Conjunto de parmetros usados no processamento de uma imagem.
+ Rene os valores que a interface grfica l das caixas de texto, para
+ que o mesmo perfil possa ser usado fora da janela (processamento em lote)
+ */
+
+public class ParametrosProcessamento {
+
+    // Constante multiplicativa de curvMin (mesma da interface grfica)
+    public static final double FACTOR = 10000;
+
+    double sigma;
+    double vMin;
+    double vMax = 255;
+    double curvMin;
+    double curvMax;
+    double distInf;
+
+    // Tipo de pea cujas mscaras salvas so aplicadas (ver RepositorioMascaras), ou null
+    String mascaras;
+
+    ParametrosProcessamento(double sigma, double vMin, double curvMin,
+                            double curvMax, double distInf) {
+        this.sigma = sigma;
+        this.vMin = vMin;
+        this.curvMin = curvMin;
+        this.curvMax = curvMax;
+        this.distInf = distInf;
+    }
+
+    ParametrosProcessamento(ParametrosProcessamento p) {
+        this(p.sigma, p.vMin, p.curvMin, p.curvMax, p.distInf);
+        this.vMax = p.vMax;
+        this.mascaras = p.mascaras;
+    }
+
+    /*Cria os parmetros a partir dos valores no formato do arquivo
+     Parametros/parametros (<sigma>,<thresh>,<mincurv>), em que a curvatura
+     mnima est multiplicada por FACTOR
+     */
+    static ParametrosProcessamento fromArquivo(double[] valores) {
+        return new ParametrosProcessamento(valores[0], valores[1],
+                valores[2] / FACTOR, 0.05, 35);
+    }
+
+    public String toString() {
+        return "sigma=" + sigma + ", V_min=" + vMin + ", curvMin=" + curvMin
+                + ", curvMax=" + curvMax + ", distInf=" + distInf
+                + (mascaras != null ? ", mscaras=" + mascaras : "");
+    }
+}
@@ -0,0 +1,278 @@
+package detectordefeitos;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/*Perfis de parmetros, um por tipo de pea, guardados no arquivo
+ Parametros/perfis. Substitui o arquivo Parametros/parametros, em que
+ cada gravao acrescentava uma linha e s a ltima era usada.
+
+ O arquivo  lido uma nica vez, na criao, e os perfis ficam em um mapa
+ que nunca  alterado: cada gravao cria um novo mapa e o publica, de
+ forma que vrias threads podem consultar os perfis sem sincronizao.
+ A gravao reescreve o arquivo inteiro em um arquivo temporrio movido
+ sobre o anterior, e incrementa a reviso. Se outro processo tiver
+ gravado o arquivo nesse meio tempo (reviso diferente), os perfis so
+ relidos antes da alterao, para que as gravaes dele no se percam.
+ A releitura, a alterao e a troca do arquivo so feitas com uma trava
+ (FileChannel.lock) no arquivo perfis.lock, ao lado do arquivo de perfis,
+ de forma que dois processos nunca gravam a mesma reviso.
+
+ Formato (UTF-8), com os campos separados por ';':
+   versao;1
+   revisao;<n>
+   <nome>;<sigma>;<V_min>;<curvMin>;<curvMax>;<distInf>;<mscaras>
+ curvMin est na escala real (no multiplicada por FACTOR) e mscaras  o
+ tipo de pea cujas mscaras salvas so usadas (vazio se nenhum). Linhas
+ comeando com # so ignoradas.
+
+ Se o arquivo no existir, ele  criado com o perfil PADRAO (a ltima
+ linha de Parametros/parametros, se houver) e os perfis dos tipos de
+ pea conhecidos
+ */
+
+public class PerfisParametros {
+
+    static final String ARQUIVO_PADRAO = "Parametros/perfis";
+    static final String ARQUIVO_ANTIGO = "Parametros/parametros";
+
+    // Perfil usado quando nenhum tipo de pea  escolhido
+    static final String PADRAO = "Padro";
+
+    private static final int VERSAO = 1;
+    private static final String SEPARADOR = ";";
+    private static final String EXTENSAO_TRAVA = ".lock";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File arquivo;
+
+    private volatile Map<String, ParametrosProcessamento> perfis;
+    private volatile int revisao;
+
+    private PerfisParametros(File arquivo, Map<String, ParametrosProcessamento> perfis, int revisao) {
+        this.arquivo = arquivo;
+        this.perfis = perfis;
+        this.revisao = revisao;
+    }
+
+    // L os perfis do arquivo padro, migrando o arquivo antigo se necessrio
+    public static PerfisParametros carrega() throws IOException {
+        return carrega(new File(ARQUIVO_PADRAO), new File(ARQUIVO_ANTIGO));
+    }
+
+    static PerfisParametros carrega(File arquivo, File antigo) throws IOException {
+        if (arquivo.isFile()) {
+            PerfisParametros lidos = new PerfisParametros(arquivo, null, 0);
+            lidos.le();
+            return lidos;
+        }
+
+        PerfisParametros migrados = new PerfisParametros(arquivo, iniciais(antigo), 0);
+        try {
+            FileChannel trava = migrados.trava();
+            try {
+                // Outro processo pode ter criado o arquivo enquanto este esperava a trava
+                if (arquivo.isFile()) migrados.le();
+                else migrados.grava(migrados.perfis);
+            } finally {
+                trava.close();
+            }
+        } catch (IOException e) {
+            // Diretrio sem permisso de escrita: os perfis continuam valendo nesta execuo
+            System.err.println("No foi possvel criar " + arquivo + ": " + e);
+        }
+        return migrados;
+    }
+
+    /*Perfis de um arquivo novo: o padro, vindo do arquivo antigo (ou os
+     valores iniciais da interface), e os dos tipos de pea conhecidos
+     */
+    private static Map<String, ParametrosProcessamento> iniciais(File antigo) {
+        Map<String, ParametrosProcessamento> iniciais = new LinkedHashMap<String, ParametrosProcessamento>();
+
+        ParametrosProcessamento padrao;
+        try {
+            padrao = ParametrosProcessamento.fromArquivo(new TextHandler().readFile(antigo.getPath()));
+        } catch (Exception e) {
+            padrao = new ParametrosProcessamento(11, 100, 0.002, 0.05, 35);
+        }
+        iniciais.put(PADRAO, padrao);
+
+        // Antes fixos nos botes "Porta" e "Para-lama" da interface
+        ParametrosProcessamento porta = new ParametrosProcessamento(14, 140, 0.001, 0.04, 40);
+        porta.mascaras = RepositorioMascaras.TIPOS[0];
+        iniciais.put(RepositorioMascaras.TIPOS[0], porta);
+
+        ParametrosProcessamento paralama = new ParametrosProcessamento(12, 180, 0.001, 0.04, 40);
+        paralama.mascaras = RepositorioMascaras.TIPOS[1];
+        iniciais.put(RepositorioMascaras.TIPOS[1], paralama);
+
+        return Collections.unmodifiableMap(iniciais);
+    }
+
+    /*Cpia dos parmetros do perfil, que pode ser alterada, ou null se
+     no houver perfil com esse nome
+     */
+    public ParametrosProcessamento get(String nome) {
+        ParametrosProcessamento p = perfis.get(nome);
+        return p != null ? new ParametrosProcessamento(p) : null;
+    }
+
+    public Set<String> nomes() {
+        return perfis.keySet();
+    }
+
+    public int getRevisao() {
+        return revisao;
+    }
+
+    // Grava o perfil, substituindo o de mesmo nome
+    public synchronized void salva(String nome, ParametrosProcessamento parametros) throws IOException {
+        if (nome.isEmpty() || nome.contains(SEPARADOR) || nome.contains("\n")) {
+            throw new IllegalArgumentException("Nome de perfil invlido: " + nome);
+        }
+
+        FileChannel trava = trava();
+        try {
+            if (arquivo.isFile() && revisaoNoArquivo() != revisao) {
+                le();
+            }
+
+            Map<String, ParametrosProcessamento> novos = new LinkedHashMap<String, ParametrosProcessamento>(perfis);
+            novos.put(nome, new ParametrosProcessamento(parametros));
+            grava(Collections.unmodifiableMap(novos));
+        } finally {
+            trava.close();
+        }
+    }
+
+    /* ********************************* */
+    /* ARQUIVO                           */
+    /* ********************************* */
+
+    /*Espera e obtm a trava entre processos; ela  liberada ao fechar o
+     canal devolvido
+     */
+    private FileChannel trava() throws IOException {
+        File diretorio = arquivo.getAbsoluteFile().getParentFile();
+        if (!diretorio.isDirectory() && !diretorio.mkdirs()) {
+            throw new IOException("No foi possvel criar o diretrio " + diretorio);
+        }
+
+        FileChannel canal = FileChannel.open(new File(diretorio, arquivo.getName() + EXTENSAO_TRAVA).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            canal.lock();
+        } catch (IOException e) {
+            canal.close();
+            throw e;
+        }
+        return canal;
+    }
+
+    private synchronized void le() throws IOException {
+        Map<String, ParametrosProcessamento> lidos = new LinkedHashMap<String, ParametrosProcessamento>();
+        int revisaoLida = 0;
+
+        BufferedReader entrada = Files.newBufferedReader(arquivo.toPath(), UTF8);
+        try {
+            String linha;
+            int numero = 0;
+            while ((linha = entrada.readLine()) != null) {
+                numero++;
+                if (linha.trim().isEmpty() || linha.startsWith("#")) continue;
+                String[] campos = linha.split(SEPARADOR, -1);
+                try {
+                    if (campos[0].equals("versao")) {
+                        if (Integer.parseInt(campos[1]) > VERSAO) {
+                            throw new IOException(arquivo + " foi gravado por uma verso mais nova do programa");
+                        }
+                    } else if (campos[0].equals("revisao")) {
+                        revisaoLida = Integer.parseInt(campos[1]);
+                    } else {
+                        lidos.put(campos[0], perfil(campos));
+                    }
+                } catch (RuntimeException e) {
+                    throw new IOException(arquivo + ", linha " + numero + ": " + linha);
+                }
+            }
+        } finally {
+            entrada.close();
+        }
+
+        perfis = Collections.unmodifiableMap(lidos);
+        revisao = revisaoLida;
+    }
+
+    private static ParametrosProcessamento perfil(String[] campos) {
+        ParametrosProcessamento p = new ParametrosProcessamento(Double.parseDouble(campos[1]),
+                Double.parseDouble(campos[2]), Double.parseDouble(campos[3]),
+                Double.parseDouble(campos[4]), Double.parseDouble(campos[5]));
+        if (campos.length > 6 && !campos[6].isEmpty()) p.mascaras = campos[6];
+        return p;
+    }
+
+    // Reviso gravada no arquivo, lendo apenas o cabealho
+    private int revisaoNoArquivo() throws IOException {
+        BufferedReader entrada = Files.newBufferedReader(arquivo.toPath(), UTF8);
+        try {
+            String linha;
+            while ((linha = entrada.readLine()) != null) {
+                if (linha.startsWith("revisao" + SEPARADOR)) {
+                    return Integer.parseInt(linha.substring(linha.indexOf(SEPARADOR) + 1).trim());
+                }
+            }
+            return 0;
+        } catch (NumberFormatException e) {
+            return -1;
+        } finally {
+            entrada.close();
+        }
+    }
+
+    private synchronized void grava(Map<String, ParametrosProcessamento> novos) throws IOException {
+        File diretorio = arquivo.getAbsoluteFile().getParentFile();
+        if (!diretorio.isDirectory() && !diretorio.mkdirs()) {
+            throw new IOException("No foi possvel criar o diretrio " + diretorio);
+        }
+
+        int novaRevisao = revisao + 1;
+        File temporario = File.createTempFile(arquivo.getName(), ".tmp", diretorio);
+        try {
+            BufferedWriter saida = new BufferedWriter(new OutputStreamWriter(
+                    Files.newOutputStream(temporario.toPath()), UTF8));
+            try {
+                saida.write("# nome;sigma;V_min;curvMin;curvMax;distInf;mscaras\n");
+                saida.write("versao" + SEPARADOR + VERSAO + "\n");
+                saida.write("revisao" + SEPARADOR + novaRevisao + "\n");
+                for (Map.Entry<String, ParametrosProcessamento> e : novos.entrySet()) {
+                    ParametrosProcessamento p = e.getValue();
+                    saida.write(e.getKey() + SEPARADOR + p.sigma + SEPARADOR + p.vMin + SEPARADOR
+                            + p.curvMin + SEPARADOR + p.curvMax + SEPARADOR + p.distInf + SEPARADOR
+                            + (p.mascaras != null ? p.mascaras : "") + "\n");
+                }
+            } finally {
+                saida.close();
+            }
+            Files.move(temporario.toPath(), arquivo.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temporario.delete();
+        }
+
+        perfis = novos;
+        revisao = novaRevisao;
+    }
+}
@@ -0,0 +1,163 @@
+package detectordefeitos;
+
+import org.opencv.core.Mat;
+
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/*Processamento da interface fora da thread de eventos do Swing. Cada
+ pedido  executado em uma nica thread de fundo, sobre o
+ ProcessamentoIncremental do painel, em duas partes: primeiro a mscara
+ binarizada, que j  exibida, e depois o resultado completo.
+
+ Um novo pedido cancela o anterior: se ele ainda no comeou, no 
+ executado; se j est em andamento, para entre as duas partes e o que
+ j foi calculado no  exibido. Pedidos feitos com agenda() esperam
+ ATRASO_MS sem novos pedidos antes de comear, para que a imagem seja
+ reprocessada apenas quando o usurio parar de digitar.
+
+ Todos os mtodos devem ser chamados na thread de eventos, e os mtodos
+ de Exibicao so chamados nela
+ */
+
+public class PreviaProcessamento {
+
+    // Espera aps o ltimo pedido agendado antes de processar, em milissegundos
+    static final int ATRASO_MS = 300;
+
+    // Recebe os resultados de um pedido
+    public interface Exibicao {
+        void mostraMascara(BufferedImage mascara);
+
+        // No  chamado para pedidos apenas de binarizao
+        void mostraResultado(ResultadoImagem resultado);
+    }
+
+    private final ProcessamentoIncremental incremental;
+
+    // Thread nica: as etapas guardadas em incremental so usadas por um pedido de cada vez
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "previa-processamento");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final Timer atraso;
+    private Pedido agendado;
+    private Pedido atual;
+
+    PreviaProcessamento(ProcessamentoIncremental incremental) {
+        this.incremental = incremental;
+
+        atraso = new Timer(ATRASO_MS, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                Pedido p = agendado;
+                agendado = null;
+                if (p != null) executa(p);
+            }
+        });
+        atraso.setRepeats(false);
+    }
+
+    // Processa a imagem imediatamente
+    public void processa(Mat imagemV, ParametrosProcessamento parametros, Exibicao exibicao) {
+        cancelaAgendado();
+        executa(new Pedido(imagemV, parametros, exibicao, false));
+    }
+
+    // Apenas binariza a imagem, imediatamente
+    public void binariza(Mat imagemV, ParametrosProcessamento parametros, Exibicao exibicao) {
+        cancelaAgendado();
+        executa(new Pedido(imagemV, parametros, exibicao, true));
+    }
+
+    // Processa a imagem quando no houver novos pedidos por ATRASO_MS
+    public void agenda(Mat imagemV, ParametrosProcessamento parametros, Exibicao exibicao) {
+        agendado = new Pedido(imagemV, parametros, exibicao, false);
+        atraso.restart();
+    }
+
+    // Cancela o pedido agendado e o que estiver em andamento
+    public void cancela() {
+        cancelaAgendado();
+        if (atual != null) {
+            atual.cancel(false);
+            atual = null;
+        }
+    }
+
+    private void cancelaAgendado() {
+        atraso.stop();
+        agendado = null;
+    }
+
+    private void executa(Pedido pedido) {
+        if (atual != null) {
+            atual.cancel(false);
+        }
+        atual = pedido;
+        executor.execute(pedido);
+    }
+
+    private class Pedido extends SwingWorker<ResultadoImagem, BufferedImage> {
+        private final Mat imagemV;
+        private final ParametrosProcessamento p;
+        private final Exibicao exibicao;
+        private final boolean apenasMascara;
+
+        Pedido(Mat imagemV, ParametrosProcessamento parametros, Exibicao exibicao, boolean apenasMascara) {
+            this.imagemV = imagemV;
+            this.p = parametros;
+            this.exibicao = exibicao;
+            this.apenasMascara = apenasMascara;
+        }
+
+        protected ResultadoImagem doInBackground() {
+            // Cancelado antes de comear: a imagem pode estar sendo alterada
+            if (isCancelled()) return null;
+
+            Mat mascara = incremental.binariza(imagemV, p.vMin, p.vMax);
+            publish(ConversorImagem.paraBufferedImage(mascara));
+
+            if (apenasMascara || isCancelled()) return null;
+            // Um pedido cancelado durante o processamento  abandonado entre as etapas
+            return incremental.processa(imagemV, p.vMin, p.vMax, p.curvMin, p.curvMax, p.sigma, p.distInf,
+                    new ProcessadorImagem.Cancelamento() {
+                        public boolean cancelado() {
+                            return isCancelled();
+                        }
+                    });
+        }
+
+        protected void process(List<BufferedImage> mascaras) {
+            // A mscara pode chegar depois do fim do pedido; no deve cobrir o resultado
+            if (isCancelled() || (isDone() && !apenasMascara)) return;
+            exibicao.mostraMascara(mascaras.get(mascaras.size() - 1));
+        }
+
+        protected void done() {
+            if (isCancelled()) return;
+            if (atual == this) atual = null;
+
+            try {
+                ResultadoImagem resultado = get();
+                if (resultado != null) exibicao.mostraResultado(resultado);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                System.err.println("Erro ao processar a imagem: " + e.getCause());
+                e.getCause().printStackTrace();
+            }
+        }
+    }
+}
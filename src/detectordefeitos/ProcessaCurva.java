@@ -1,5 +1,6 @@
+package detectordefeitos;
+
 import org.opencv.core.*;
-import org.opencv.imgproc.Imgproc;
 
 import java.util.ArrayList;
 
@@ -13,6 +14,15 @@ public class ProcessaCurva {
 
     private int LIMIT = 10;
 
+    /*Quando verdadeiro, a suavizao e as derivadas so calculadas com o
+    filtro gaussiano recursivo (custo independente de sigma) em vez da
+    convoluo direta com o kernel*/
+    private boolean filtroRecursivo = false;
+
+    public void setFiltroRecursivo(boolean filtroRecursivo) {
+        this.filtroRecursivo = filtroRecursivo;
+    }
+
     /**
      * Calculates the average value of each curve by simply summing their y values
      * and dividing them by 2.
@@ -23,50 +33,106 @@ public class ProcessaCurva {
      */
 
     public ArrayList<Point> drawAverageCurve(Mat input, Componente comp) {
+        int[][] media = getAverageCurve(input, comp);
 
-        int n_colunas = input.cols();
-        int n_linhas = input.rows();
+        ArrayList<Point> curva = new ArrayList<Point>(media[0].length);
+        for (int i = 0; i < media[0].length; i++) {
+            curva.add(new Point(media[0][i], media[1][i]));
+        }
+        return curva;
+    }
 
-        ArrayList<Point> curva = new ArrayList<Point>();
+    /**
+     * Same curve as drawAverageCurve, as two int arrays {x, y}. For each
+     * column of the component (from x_min to x_max) the y values are summed
+     * and counted in a single pass over the component's own points, so the
+     * cost does not depend on the image size.
+     *
+     * @param input input image (only its dimensions are used)
+     * @param comp  connected component
+     * @return {x, y} of the average point of every column that has points
+     */
+    public int[][] getAverageCurve(Mat input, Componente comp) {
+        int x_inicio = Math.max(comp.x_min, 0);
+        int x_fim = Math.min(comp.x_max, input.cols() - 1);
+        int n_linhas = input.rows();
 
-        for (int c = 0; c < n_colunas; c++) {
-            int l_medio = 0;
-            int count = 0;
+        int largura = Math.max(x_fim - x_inicio + 1, 0);
+        long[] soma = new long[largura];
+        int[] count = new int[largura];
 
-            for (int i = 0; i < n_linhas; i++) {
-                if (comp.hasPoint(new Point(c, i))) {
-                    l_medio += i;
-                    count += 1;
-                }
+        for (int k = 0; k < comp.tamanho(); k++) {
+            int c = comp.getX(k);
+            int i = comp.getY(k);
+            if (c >= x_inicio && c <= x_fim && i >= 0 && i < n_linhas) {
+                soma[c - x_inicio] += i;
+                count[c - x_inicio] += 1;
             }
-            if (count != 0) {
-                l_medio /= count;
-                curva.add(new Point(c, l_medio));
+        }
+
+        int colunas = 0;
+        for (int c = 0; c < largura; c++) {
+            if (count[c] != 0) colunas++;
+        }
+
+        int[][] curva = new int[2][colunas];
+        int j = 0;
+        for (int c = 0; c < largura; c++) {
+            if (count[c] != 0) {
+                curva[0][j] = x_inicio + c;
+                curva[1][j] = (int) (soma[c] / count[c]);
+                j++;
             }
         }
         return curva;
     }
 
-    //Insere pontos no meio da curva mdia a fim de evitar descontinuidades
-    public void fillOutPoints(ArrayList<Point> curva, int indice) {
-        Point p1 = curva.get(indice);
-        Point p2 = curva.get(indice + 1);
-        if (Math.abs(p1.y - p2.y) > 1) {
-            if (p2.y > p1.y) {
-                for (int i = (int) p1.y + 1; i < p2.y - 1; i++) {
-                    curva.add(indice + 1, new Point(p1.x, i));
-                }
-            } else {
-                for (int i = (int) p2.y + 1; i < p1.y - 1; i++) {
-                    curva.add(indice + 1, new Point(p1.x, i));
+    /**
+     * Insere pontos no meio da curva mdia a fim de evitar descontinuidades.
+     * Quando dois pontos consecutivos esto a mais de um pixel de distncia
+     * em y, os valores intermedirios so inseridos (na coluna do primeiro
+     * ponto), em ordem. A curva  escrita diretamente nos vetores de sada,
+     * que so alocados j com o tamanho final.
+     *
+     * @param x coordenadas x da curva mdia
+     * @param y coordenadas y da curva mdia
+     * @return {x, y} da curva preenchida
+     */
+    public double[][] fillOutPoints(int[] x, int[] y) {
+        int n = x.length;
+
+        int total = n;
+        for (int i = 0; i < n - 1; i++) {
+            int salto = Math.abs(y[i + 1] - y[i]);
+            if (salto > 1) total += salto - 1;
+        }
+
+        double[] pointsX = new double[total];
+        double[] pointsY = new double[total];
+
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            pointsX[k] = x[i];
+            pointsY[k] = y[i];
+            k++;
+
+            if (i < n - 1 && Math.abs(y[i + 1] - y[i]) > 1) {
+                int passo = y[i + 1] > y[i] ? 1 : -1;
+                for (int j = y[i] + passo; j != y[i + 1]; j += passo) {
+                    pointsX[k] = x[i];
+                    pointsY[k] = j;
+                    k++;
                 }
             }
         }
+
+        return new double[][]{pointsX, pointsY};
     }
 
     /**
      * Retorna o kernel gaussiano bem como a sua primeira
-     e segunda derivadas
+     e segunda derivadas. Os kernels vm do cache compartilhado
+     (CacheKernelGaussiano) e no devem ser modificados
      * @param sigma
      * @param M
      * @return
@@ -77,30 +143,7 @@ public class ProcessaCurva {
     //terceira linha - segunda derivada
 
     public double[][] getGaussianDerivatives(double sigma, int M) {
-        int L = (M - 1) / 2;
-
-        double sigma_sq = sigma * sigma;
-        double sigma_quad = sigma_sq * sigma_sq;
-
-        double[] gaussian = new double[M];
-        double[] dg = new double[M];
-        double[] d2g = new double[M];
-        double[][] ret = new double[3][M];
-
-        Mat g = Imgproc.getGaussianKernel(M, sigma, CvType.CV_64F);
-
-        for (double i = -L; i < L + 1.0; i += 1.0) {
-            int idx = (int) (i + L);
-            gaussian[idx] = g.get(idx, 0)[0];
-            dg[idx] = (-i / sigma_sq) * g.get(idx, 0)[0];
-            d2g[idx] = (-sigma_sq + i * i) / sigma_quad * g.get(idx, 0)[0];
-        }
-
-        ret[0] = gaussian;
-        ret[1] = dg;
-        ret[2] = d2g;
-
-        return ret;
+        return CacheKernelGaussiano.compartilhado().get(sigma, M);
     }
 
     /**
@@ -134,9 +177,6 @@ public class ProcessaCurva {
                 }
             } else if (n - k > x.length - 1) {
                 if (isOpen) {
-                    if (n == 0) {
-                        System.out.println(n + k);
-                    }
                     x_n_k = x[n + k];
                 } else {
                     x_n_k = x[(n - k) - (x.length)];
@@ -197,49 +237,63 @@ public class ProcessaCurva {
                                  Componente currentComponent, double curvMin,
                                  double curvMax, double sigma, double distInf, boolean mostraTudo) {
 
-        ArrayList<Point> averagePointArray = drawAverageCurve(initialMatImage,
-                currentComponent);
+        desenhaResultado(initialMatImage, analisaComponente(initialMatImage,
+                currentComponent, curvMin, curvMax, sigma, distInf));
+    }
 
-        for (int i = 0; i < averagePointArray.size() - 2; i++) {
-            fillOutPoints(averagePointArray, i);
-        }
+    /*Realiza a anlise de curvatura de uma componente sem desenhar nada
+     na imagem (da qual s so usadas as dimenses). Como no altera nenhum
+     estado compartilhado, pode ser chamada ao mesmo tempo para vrias
+     componentes*/
 
-        for (Point p : averagePointArray) {
-            initialMatImage.put((int) p.y, (int) p.x,
-                    new double[]{0, 255, 0});
-        }
+    public ResultadoCurva analisaComponente(Mat initialMatImage,
+                                           Componente currentComponent, double curvMin,
+                                           double curvMax, double sigma, double distInf) {
+        return classificaPontos(calculaCurvatura(initialMatImage, currentComponent, sigma),
+                curvMin, distInf);
+    }
 
-        double[] pointsX = new double[averagePointArray.size()];
-        double[] pointsY = new double[averagePointArray.size()];
+    /*Primeira parte da anlise, que depende apenas de sigma: curva mdia,
+     suavizao, curvatura (kappa) e pontos de curvatura zero. O resultado
+     no tem pontos de inflexo; eles so obtidos com classificaPontos, que
+     pode ser chamado de novo com outros curvMin e distInf sem repetir
+     esta parte*/
 
-        for (int i = 0; i < averagePointArray.size(); i++) {
-            pointsX[i] = averagePointArray.get(i).x;
-            pointsY[i] = averagePointArray.get(i).y;
-        }
-        int M = Math.min((int) Math.round((10.0 * sigma + 1.0) / 2.0) * 2 - 1, pointsX.length);
+    public ResultadoCurva calculaCurvatura(Mat initialMatImage,
+                                           Componente currentComponent, double sigma) {
+
+        int[][] averageCurve = getAverageCurve(initialMatImage, currentComponent);
+
+        double[][] filledCurve = fillOutPoints(averageCurve[0], averageCurve[1]);
+        double[] pointsX = filledCurve[0];
+        double[] pointsY = filledCurve[1];
+
+        double[][] xDerivativeCurve;
+        double[][] yDerivativeCurve;
 
-        double[][] gaussianDerivatives = getGaussianDerivatives(sigma, M);
+        if (filtroRecursivo) {
+            FiltroGaussianoRecursivo filtro = new FiltroGaussianoRecursivo(sigma);
+            xDerivativeCurve = filtro.getXDerivativeCurve(pointsX);
+            yDerivativeCurve = filtro.getXDerivativeCurve(pointsY);
+        } else {
+            int M = Math.min(CacheKernelGaussiano.tamanhoCompleto(sigma), pointsX.length);
+
+            double[][] gaussianDerivatives = getGaussianDerivatives(sigma, M);
 
-        double[] g, dg, d2g;
-        g = gaussianDerivatives[0];
-        dg = gaussianDerivatives[1];
-        d2g = gaussianDerivatives[2];
+            double[] g, dg, d2g;
+            g = gaussianDerivatives[0];
+            dg = gaussianDerivatives[1];
+            d2g = gaussianDerivatives[2];
 
-        double[][] xDerivativeCurve = getXDerivativeCurve(pointsX, sigma, g, dg, d2g, true);
-        double[][] yDerivativeCurve = getXDerivativeCurve(pointsY, sigma, g, dg, d2g, true);
+            xDerivativeCurve = getXDerivativeCurve(pointsX, sigma, g, dg, d2g, true);
+            yDerivativeCurve = getXDerivativeCurve(pointsY, sigma, g, dg, d2g, true);
+        }
 
         double[] dX = xDerivativeCurve[1];//derivada
         double[] ddX = xDerivativeCurve[2];//segunda derivada
         double[] dY = yDerivativeCurve[1];
         double[] ddY = yDerivativeCurve[2];
 
-        ArrayList<Point> smoothCurve = new ArrayList<Point>();
-
-        for (int i = 0; i < xDerivativeCurve[0].length; i++) {
-            Point p = new Point(xDerivativeCurve[0][i], yDerivativeCurve[0][i]);
-            smoothCurve.add(p);
-        }
-
         double[] kappa = new double[xDerivativeCurve[0].length];
         double[] kappa_norm = new double[xDerivativeCurve[0].length];
 
@@ -252,11 +306,59 @@ public class ProcessaCurva {
                     / Math.pow(dX[i] * dX[i] + dY[i] * dY[i], 1.5);
         }
 
-        System.out.println("inicio de componente");
-        int[] ehMudanca = filterInflectionPoints(kappa, (int) distInf);
         int[] ehCurvaZero = getCurvatureInflectionPoints(kappa);
 
+        ArrayList<Integer> curvaturaZero = new ArrayList<Integer>();
+        for (int i = LIMIT; i < kappa_norm.length - LIMIT; i++) {
+            if (ehCurvaZero[i] == 1) {
+                curvaturaZero.add(i);
+            }
+        }
+        return new ResultadoCurva(pointsX, pointsY, xDerivativeCurve[0], yDerivativeCurve[0],
+                kappa, kappa_norm, new ArrayList<Integer>(), curvaturaZero);
+    }
+
+    /*Segunda parte da anlise: pontos de inflexo (mudanas de sinal de
+     kappa filtradas por distInf) com curvatura acima de curvMin. Devolve
+     um novo resultado que compartilha as curvas e a curvatura do dado*/
+
+    public ResultadoCurva classificaPontos(ResultadoCurva curva, double curvMin, double distInf) {
+        double[] kappa_norm = curva.kappa_norm;
+        int[] ehMudanca = filterInflectionPoints(curva.kappa, (int) distInf);
+
+        ArrayList<Integer> inflexoes = new ArrayList<Integer>();
         for (int i = LIMIT; i < kappa_norm.length - LIMIT; i++) {
+            if (ehMudanca[i] == 1 && kappa_norm[i] > curvMin) {
+                inflexoes.add(i);
+            }
+        }
+        return curva.comInflexoes(inflexoes);
+    }
+
+    /*Desenha o resultado da anlise de uma componente: a curva mdia em
+     verde, os pontos de inflexo com curvatura acima do mnimo em azul
+     e os pontos de curvatura zero em vermelho (os canais do Mat so
+     exibidos na ordem R, G, B)*/
+
+    public void desenhaResultado(Mat initialMatImage, ResultadoCurva resultado) {
+        double[] pointsX = resultado.pointsX;
+        double[] pointsY = resultado.pointsY;
+
+        for (int i = 0; i < pointsX.length; i++) {
+            initialMatImage.put((int) pointsY[i], (int) pointsX[i],
+                    new double[]{0, 255, 0});
+        }
+
+        int[] inflexoes = resultado.inflexoes;
+        int[] curvaturaZero = resultado.curvaturaZero;
+        int a = 0;
+        int b = 0;
+
+        // Percorre os dois conjuntos de ndices em ordem crescente
+        while (a < inflexoes.length || b < curvaturaZero.length) {
+            int i = Math.min(a < inflexoes.length ? inflexoes[a] : Integer.MAX_VALUE,
+                    b < curvaturaZero.length ? curvaturaZero[b] : Integer.MAX_VALUE);
+            Point p = new Point(resultado.suaveX[i], resultado.suaveY[i]);
 
             // Parte para visualizar curvaturas
 
@@ -266,50 +368,19 @@ public class ProcessaCurva {
             // valorRGB);
             // }
 
-            System.out.println(kappa_norm[i]);
-
-            if (ehMudanca[i] == 1 && kappa_norm[i] > curvMin) {
-                Core.circle(initialMatImage, new Point(xDerivativeCurve[0][i], yDerivativeCurve[0][i]),
+            if (a < inflexoes.length && inflexoes[a] == i) {
+                Core.circle(initialMatImage, p,
                         3,
                         new Scalar(0, 0, 255));
+                a++;
             }
-            if (ehCurvaZero[i] == 1) {
-                Core.circle(initialMatImage, new Point(xDerivativeCurve[0][i], yDerivativeCurve[0][i]),
+            if (b < curvaturaZero.length && curvaturaZero[b] == i) {
+                Core.circle(initialMatImage, p,
                         2,
                         new Scalar(255, 0, 0));
+                b++;
             }
-
-            // if (kappa[i] > 0.005) {
-            // Core.circle(inicial, new Point(r_x[0][i], r_y[0][i]), 2,
-            // new Scalar(255, 0, 0));
-            // } else if (kappa[i] < -0.005) {
-            // Core.circle(inicial, new Point(r_x[0][i], r_y[0][i]), 2,
-            // new Scalar(0, 0, 255));
-            // }
-
-			/*
-			 * if (kappa_norm[i] > 0.04) { if (mostraTudo) Core.circle(inicial,
-			 * new Point(r_x[0][i], r_y[0][i]), 2, new Scalar(255, 0, 0)); }
-			 */
-
-			/*
-			 * if(dY[i]/dX[i]<0 && dY[i+1]/dX[i+1]>0 || dY[i]/dX[i]>0 &&
-			 * dY[i+1]/dX[i+1]<0){ if(mostraTudo)
-			 * 
-			 * Core.circle(inicial, new Point(r_x[0][i], r_y[0][i]), 2, new
-			 * Scalar(0, 255, 255), -1);
-			 * 
-			 * } //quando tem um zero crossing na curvatura (kappa), faz um
-			 * circulo vermelho no lugar
-			 * 
-			 * /* if ((kappa[i] < 0 && kappa[i+1] > 0) || kappa[i] > 0 &&
-			 * kappa[i+1] < 0) { if(mostraTudo) Core.circle(inicial, new
-			 * Point(r_x[0][i],r_y[0][i]), 2, new Scalar(255,0,0),-1); }
-			 */
         }
-        System.out.println("fim de componente");
-        System.out.println();
-
     }
 
     public int[] getCurvatureInflectionPoints(double[] kappa) {
@@ -0,0 +1,563 @@
+package detectordefeitos;
+
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/*Esta classe  responsvel pela extrao de componentes de uma imagem 
+ binarizada e por chamar a classe de processamento de curvas.  uma classe
+ extremamente importante pois sem uma extrao eficiente de componentes, 
+ no existe processamento eficiente
+ */
+
+public class ProcessadorImagem {
+
+	/*Corte de eliminao de detalhes, a ser considerado 
+	no momento da gerao de componentes*/
+
+    private Componente corte;
+
+    /*Pixels apagados das fronteiras em torno do corte, gerada uma vez por
+    corte e tamanho de imagem*/
+    private Mat mascaraCorte;
+
+    // Raio da faixa apagada em torno do corte
+    private static final int RAIO_CORTE = 3;
+
+    /*Consultado entre as etapas de um processamento que pode ser
+    abandonado (a prvia da interface); quando retorna true, o
+    processamento  interrompido com CancellationException*/
+    interface Cancelamento {
+        boolean cancelado();
+    }
+
+    // Mscaras salvas do tipo de pea, aplicadas antes do processamento (opcional)
+    private MascarasPeca mascaras;
+
+    // Rotulao de componentes conexos
+    private RotuladorComponentes rotulador = new RotuladorComponentes();
+
+    // Suavizao das curvas pelo filtro recursivo em vez da convoluo direta
+    private boolean filtroRecursivo = false;
+
+    // Executor em que as componentes so analisadas
+    private ExecutorService executor = ForkJoinPool.commonPool();
+
+    // ltima janela de binarizao usada (a tabela  reaproveitada)
+    private ThresholdJanelaV threshold;
+
+    // Converso das imagens de sada, reaproveitando as imagens devolvidas
+    private final ConversorImagem conversor = new ConversorImagem(2);
+
+    // Cache em disco das imagens pr-processadas (opcional)
+    private CachePreprocessamento cache;
+
+    // Dimensoes da imagem
+    private int IMAGE_WIDTH;
+    private int IMAGE_HEIGHT;
+
+    private int IMAGE_WIDTH_MAX = 850;
+    private int IMAGE_HEIGHT_MAX = 700;
+
+    // Mtricas de tempo das etapas e de tamanho das imagens e componentes
+    private static final Metricas.Histograma T_DECODIFICACAO = Metricas.global().etapa("decodificacao");
+    private static final Metricas.Histograma T_CACHE = Metricas.global().etapa("cache");
+    private static final Metricas.Histograma T_REDIMENSIONAMENTO = Metricas.global().etapa("redimensionamento");
+    private static final Metricas.Histograma T_SUAVIZACAO = Metricas.global().etapa("suavizacao");
+    private static final Metricas.Histograma T_CONVERSAO_COR = Metricas.global().etapa("conversao_cor");
+    private static final Metricas.Histograma T_THRESHOLD = Metricas.global().etapa("threshold");
+    private static final Metricas.Histograma COMPONENTES_POR_IMAGEM = Metricas.global().histograma(
+            "detector_componentes_por_imagem", "Componentes conexas analisadas em cada imagem");
+    private static final Metricas.Histograma PONTOS_POR_COMPONENTE = Metricas.global().histograma(
+            "detector_pontos_por_componente", "Pontos de fronteira em cada componente analisada");
+
+    // Construtor
+    ProcessadorImagem() {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        corte = new Componente();
+    }
+
+    public void getDimension(Mat input) {
+        this.IMAGE_WIDTH = input.width();
+        this.IMAGE_HEIGHT = input.height();
+    }
+
+    public Mat scaleImage(Mat input) {
+        return scaleImage(input, tamanhoReduzido(input.width(), input.height()));
+    }
+
+    // Redimensiona a imagem para o tamanho dado
+    public Mat scaleImage(Mat input, Size tamanho) {
+        getDimension(input);
+        if (IMAGE_WIDTH != (int) tamanho.width || IMAGE_HEIGHT != (int) tamanho.height) {
+            Imgproc.resize(input, input, tamanho);
+        }
+        return input;
+    }
+
+    /*Tamanho de trabalho de uma imagem: a maior dimenso  reduzida ao
+     mximo permitido, mantendo a proporo
+     */
+    public Size tamanhoReduzido(int largura, int altura) {
+        int newWidth, newHeight;
+        if (altura > largura) {
+
+            if (altura > IMAGE_HEIGHT_MAX) {
+                newHeight = IMAGE_HEIGHT_MAX;
+                newWidth = largura * IMAGE_HEIGHT_MAX / altura;
+            } else {
+                newHeight = altura;
+                newWidth = largura;
+            }
+        } else {
+            if (largura > IMAGE_WIDTH_MAX) {
+                newWidth = IMAGE_WIDTH_MAX;
+                newHeight = altura * IMAGE_WIDTH_MAX / largura;
+            } else {
+                newWidth = largura;
+                newHeight = altura;
+            }
+        }
+        return new Size(newWidth, newHeight);
+    }
+
+    public synchronized void setCorte(Componente corte) {
+        this.corte = corte;
+        this.mascaraCorte = null;
+    }
+
+    /*Define as mscaras do tipo de pea. Quem binariza a imagem deve
+    aplic-las (MascarasPeca.aplica); aqui  eliminado das fronteiras o
+    contorno da regio excluda
+    */
+    public synchronized void setMascaras(MascarasPeca mascaras) {
+        this.mascaras = mascaras;
+    }
+
+    public synchronized MascarasPeca getMascaras() {
+        return mascaras;
+    }
+
+    private synchronized Mat mascaraCorte(int linhas, int colunas) {
+        if (mascaraCorte == null || mascaraCorte.rows() != linhas || mascaraCorte.cols() != colunas) {
+            mascaraCorte = MascaraPoligonal.contorno(corte, linhas, colunas, RAIO_CORTE);
+        }
+        return mascaraCorte;
+    }
+
+    public void setFiltroRecursivo(boolean filtroRecursivo) {
+        this.filtroRecursivo = filtroRecursivo;
+    }
+
+    public boolean isFiltroRecursivo() {
+        return filtroRecursivo;
+    }
+
+    /*Define o cache das imagens pr-processadas, que pode ser
+     compartilhado entre processadores
+     */
+    public void setCache(CachePreprocessamento cache) {
+        this.cache = cache;
+    }
+
+    // Define o executor usado na anlise de curvatura das componentes
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /* ********************************* */
+    /* PR-PROCESSAMENTO E BINARIZAO   */
+    /* ********************************* */
+
+    /*L a imagem do disco e realiza o pr-processamento. A imagem j 
+     decodificada em resoluo reduzida, prxima do tamanho de trabalho
+     */
+    public ImagemPreprocessada abreImagem(File a) throws IOException {
+        return abreImagem(a, null);
+    }
+
+    /*Idem, j gerando a mscara da janela dada (ver
+     ImagemPreprocessada.getMascara), se janela no for null
+     */
+    public ImagemPreprocessada abreImagem(File a, ThresholdJanelaV janela) throws IOException {
+        if (cache == null) {
+            return leImagem(a, janela);
+        }
+
+        // Com o cache, a leitura e o pr-processamento so feitos apenas na primeira vez
+        long t = System.nanoTime();
+        String chave = CachePreprocessamento.chave(a, configuracaoPreprocessamento());
+        ImagemPreprocessada imagem = cache.le(chave);
+        T_CACHE.registraDesde(t);
+        if (imagem != null) {
+            return imagem;
+        }
+
+        imagem = leImagem(a, janela);
+        try {
+            cache.grava(chave, imagem);
+        } catch (IOException e) {
+            // Falha no cache no impede o processamento
+            System.err.println("No foi possvel gravar " + a + " no cache: " + e);
+        }
+        return imagem;
+    }
+
+    private ImagemPreprocessada leImagem(File a, ThresholdJanelaV janela) throws IOException {
+        long t = System.nanoTime();
+        LeitorImagem.Lida lida = LeitorImagem.le(a, new LeitorImagem.Alvo() {
+            public Size tamanho(int largura, int altura) {
+                return tamanhoReduzido(largura, altura);
+            }
+        });
+        T_DECODIFICACAO.registraDesde(t);
+        return preprocessa(lida.imagem, tamanhoReduzido(lida.largura, lida.altura), janela);
+    }
+
+    /*Descrio do pr-processamento feito por abreImagem, parte da chave
+     do cache: deve mudar sempre que o resultado do pr-processamento mudar
+     */
+    String configuracaoPreprocessamento() {
+        return "v2 subamostragem maximo=" + IMAGE_WIDTH_MAX + "x" + IMAGE_HEIGHT_MAX
+                + " gaussiano=5x5/0.8 planos=V,gray(RGB2GRAY)";
+    }
+
+    /*Redimensiona a imagem, elimina o rudo e gera o canal V e a verso
+     em tons de cinza (a verso em HSV  gerada sob demanda)
+     */
+    public ImagemPreprocessada preprocessa(BufferedImage img) {
+        return preprocessa(img, tamanhoReduzido(img.getWidth(), img.getHeight()), null);
+    }
+
+    // Idem, redimensionando para o tamanho dado e gerando a mscara da janela, se houver
+    ImagemPreprocessada preprocessa(BufferedImage img, Size tamanho, ThresholdJanelaV janela) {
+        long t = System.nanoTime();
+        Mat imagem_inicial = ConversorImagem.paraMat(img);
+        if (imagem_inicial.channels() == 1) {
+            Imgproc.cvtColor(imagem_inicial, imagem_inicial, Imgproc.COLOR_GRAY2BGR);
+        }
+
+        // *** MODIFICACAO DO TAMANHO DA IMAGEM ***
+        imagem_inicial = scaleImage(imagem_inicial, tamanho);
+        t = T_REDIMENSIONAMENTO.registraDesde(t);
+
+        // *** ELIMINACAO DO RUIDO ***
+        Imgproc.GaussianBlur(imagem_inicial, imagem_inicial, new Size(5, 5),
+                0.8);
+        t = T_SUAVIZACAO.registraDesde(t);
+
+        // Planos V e de tons de cinza (e a mscara) em uma nica passada
+        ImagemPreprocessada imagem = ImagemPreprocessada.separa(imagem_inicial, janela);
+        T_CONVERSAO_COR.registraDesde(t);
+
+        return imagem;
+    }
+
+    /*Binariza a imagem: pixels cujo V est entre vMin e vMax ficam brancos
+     (255), os demais ficam pretos (0). A imagem pode ser o plano V ou a
+     imagem HSV completa. O resultado tem um nico canal
+     */
+    public Mat realizaThreshold(Mat imagemV, double vMin, double vMax) {
+        long t = System.nanoTime();
+        Mat mascara = janela(vMin, vMax).aplica(imagemV);
+        T_THRESHOLD.registraDesde(t);
+        return mascara;
+    }
+
+    // Janela de binarizao, reaproveitando a ltima usada
+    public ThresholdJanelaV janela(double vMin, double vMax) {
+        if (threshold == null || !threshold.temJanela(vMin, vMax)) {
+            threshold = new ThresholdJanelaV(vMin, vMax);
+        }
+        return threshold;
+    }
+
+    /*Devolve uma imagem gerada por processImage que no ser mais usada,
+     para que seja reaproveitada na prxima imagem do mesmo tamanho
+     */
+    public void devolveImagem(BufferedImage imagem) {
+        conversor.devolve(imagem);
+    }
+
+    // Classes de pixel usadas na deteco de fronteiras
+    private static final byte PRETO = 0;
+    private static final byte NEUTRO = 1;
+    private static final byte BRANCO = 2;
+
+    // Mtodos utilizados na binarizao
+    boolean ehPreto(double val) {
+        double thresh = 150;
+        if (val < thresh) return true;
+        return false;
+    }
+
+    boolean ehBranco(double val) {
+        double thresh = 150;
+        if (val > thresh) return true;
+        return false;
+    }
+
+    /*Funo que identifica fornteiras entre preto e branco na imagem.
+     Um pixel  de fronteira quando  branco e tem algum vizinho (acima,
+     abaixo,  direita ou  esquerda) preto, ou vice-versa. A sada  uma
+     imagem de 3 canais branca com as fronteiras em preto. A imagem  lida
+     de uma vez para um vetor de bytes e as linhas so divididas em faixas
+     processadas em paralelo
+     */
+    public Mat encontra_fronteiras(Mat input) {
+        Mat output = marcaFronteiras(input);
+
+        /*Elimina as fronteiras criadas pelo corte: a regio apagada fica
+        preta, e sua borda viraria uma fronteira falsa*/
+        if (corte.tamanho() > 0) {
+            output.setTo(new Scalar(255, 255, 255), mascaraCorte(output.rows(), output.cols()));
+        }
+        MascarasPeca m = getMascaras();
+        if (m != null) {
+            m.apagaContorno(output);
+        }
+
+        return output;
+    }
+
+    // Idem, sem considerar o corte (no altera o estado do processador)
+    Mat marcaFronteiras(Mat input) {
+        final int linhas = input.rows();
+        final int colunas = input.cols();
+        final int canais = input.channels();
+
+        if (!input.isContinuous()) {
+            input = input.clone();
+        }
+
+        final byte[] entrada = new byte[linhas * colunas * canais];
+        input.get(0, 0, entrada);
+
+        // Classificao de cada valor possvel do pixel
+        final byte[] classe = new byte[256];
+        for (int v = 0; v < 256; v++) {
+            classe[v] = ehPreto(v) ? PRETO : (ehBranco(v) ? BRANCO : NEUTRO);
+        }
+
+        final byte[] saida = new byte[linhas * colunas * 3];
+        Arrays.fill(saida, (byte) 255);
+
+        Faixas.executa(linhas, Faixas.numFaixas(linhas, 64), new Faixas.Tarefa() {
+            public void executa(int faixa, int inicio, int fim) {
+                for (int l = Math.max(inicio, 1); l < Math.min(fim, linhas - 1); l++) {
+                    for (int c = 1; c < colunas - 1; c++) {
+                        int p = l * colunas + c;
+
+                        byte atual = classe[entrada[p * canais] & 0xff];
+                        if (atual == NEUTRO) continue;
+
+                        byte oposto = (atual == BRANCO) ? PRETO : BRANCO;
+                        if (classe[entrada[(p + colunas) * canais] & 0xff] == oposto
+                                || classe[entrada[(p - colunas) * canais] & 0xff] == oposto
+                                || classe[entrada[(p + 1) * canais] & 0xff] == oposto
+                                || classe[entrada[(p - 1) * canais] & 0xff] == oposto) {
+                            saida[p * 3] = 0;
+                            saida[p * 3 + 1] = 0;
+                            saida[p * 3 + 2] = 0;
+                        }
+                    }
+                }
+            }
+        });
+
+        Mat output = new Mat(linhas, colunas, CvType.CV_8UC3);
+        output.put(0, 0, saida);
+        return output;
+    }
+	
+	
+	/* ****************************************** */
+	/* METODOS PARA ENCONTRAR COMPONENTES CONEXOS */
+	/* ****************************************** */
+
+    /*Retorna uma arrayList de componentes conexos (pretos) de toda a figura.
+     Componentes com menos de 10 pontos so eliminadas da imagem
+     (eliminao de rudo)
+     */
+    public ArrayList<Componente> encontra_tudo(Mat a) {
+        int thresh = 10;
+        return rotulador.encontraComponentes(a, thresh);
+    }
+	
+	
+	/* ********************************* */
+	/* REALIZA O PROCESSAMENTO DA IMAGEM */
+	/* ********************************* */
+
+    public BufferedImage processImage(BufferedImage img,
+                                      double curvMin, double curvMax, double sigma, double distInf) {
+        //obtem o objeto Mat
+        Mat imagem_inicial = ConversorImagem.paraMat(img);
+
+        return processImage(imagem_inicial, curvMin, curvMax, sigma, distInf);
+    }
+
+    public BufferedImage processImage(Mat imagem_inicial,
+                                      double curvMin, double curvMax, double sigma, double distInf) {
+        return processaImagem(imagem_inicial, curvMin, curvMax, sigma, distInf).getImagem();
+    }
+
+    /*Realiza o processamento e devolve, alm da imagem anotada, os
+     defeitos encontrados e o tempo gasto em cada etapa
+     */
+    public ResultadoImagem processaImagem(Mat imagem_inicial,
+                                          double curvMin, double curvMax, double sigma, double distInf) {
+        //Diminui a imagem para otimizar o tempo de processamento
+        // Imgproc.resize(imagem_inicial, imagem_inicial, new Size(800, 800));
+        imagem_inicial = scaleImage(imagem_inicial);
+
+        ResultadoImagem resultado = new ResultadoImagem(imagem_inicial.cols(), imagem_inicial.rows());
+        long t = System.nanoTime();
+
+        //A mscara do threshold j vem em um canal s
+        Mat preto_e_branco = imagem_inicial;
+        if (imagem_inicial.channels() != 1) {
+            preto_e_branco = new Mat(imagem_inicial.rows(), imagem_inicial.cols(), CvType.CV_8UC1);
+            Imgproc.cvtColor(imagem_inicial, preto_e_branco, Imgproc.COLOR_RGB2GRAY);
+        }
+
+
+        Mat pontos_fronteira = encontra_fronteiras(preto_e_branco);
+        t = marcaTempo(resultado, "fronteiras", t);
+
+        ArrayList<Componente> componentes = encontra_tudo(pontos_fronteira);
+        t = marcaTempo(resultado, "componentes", t);
+
+        return finalizaImagem(resultado, pontos_fronteira, componentes, curvMin, curvMax, sigma, distInf, t);
+    }
+
+    /*Etapas finais, comuns ao processamento normal e ao em mosaico: anlise
+     de curvatura das componentes e desenho dos resultados sobre a imagem
+     de fronteiras. inicio  o instante em que a etapa de curvatura comeou
+     */
+    ResultadoImagem finalizaImagem(ResultadoImagem resultado, Mat pontos_fronteira, List<Componente> componentes,
+                                   double curvMin, double curvMax, double sigma, double distInf, long inicio) {
+        long t = inicio;
+        COMPONENTES_POR_IMAGEM.registra(componentes.size());
+        for (Componente c : componentes) {
+            PONTOS_POR_COMPONENTE.registra(c.tamanho());
+        }
+
+        List<ResultadoCurva> curvas = analisaComponentes(pontos_fronteira, componentes,
+                curvMin, curvMax, sigma, distInf);
+        t = marcaTempo(resultado, "curvatura", t);
+
+        return desenha(resultado, pontos_fronteira, curvas, t);
+    }
+
+    /*Desenha as curvas sobre a imagem de fronteiras e a converte para a
+     imagem do resultado. inicio  o instante em que o desenho comeou
+     */
+    ResultadoImagem desenha(ResultadoImagem resultado, Mat pontos_fronteira, List<ResultadoCurva> curvas,
+                            long inicio) {
+        // Desenha os resultados na ordem das componentes, em uma nica thread
+        ProcessaCurva pc = new ProcessaCurva();
+        for (ResultadoCurva r : curvas) {
+            pc.desenhaResultado(pontos_fronteira, r);
+            resultado.adicionaComponente(r);
+        }
+
+        resultado.setImagem(conversor.paraBufferedImageReusando(pontos_fronteira));
+        marcaTempo(resultado, "desenho", inicio);
+
+        return resultado;
+    }
+
+    /*Registra o tempo da etapa que comeou em inicio, no resultado e nas
+     mtricas, e devolve o instante atual
+     */
+    static long marcaTempo(ResultadoImagem resultado, String etapa, long inicio) {
+        long agora = System.nanoTime();
+        resultado.adicionaTempo(etapa, agora - inicio);
+        Metricas.global().etapa(etapa).registra(agora - inicio);
+        return agora;
+    }
+
+    /*Processa a curva para cada componente conexo: calcula a curvatura
+     de cada componente e classifica os seus pontos
+     */
+    List<ResultadoCurva> analisaComponentes(Mat pontos_fronteira, List<Componente> componentes,
+                                            double curvMin, double curvMax,
+                                            double sigma, double distInf) {
+        return classificaPontos(calculaCurvaturas(pontos_fronteira, componentes, sigma), curvMin, distInf);
+    }
+
+    /*Pontos de inflexo de cada curva j calculada.  a nica etapa que
+     depende de curvMin e distInf, e  rpida o bastante para ser feita em
+     uma nica thread
+     */
+    List<ResultadoCurva> classificaPontos(List<ResultadoCurva> curvas, double curvMin, double distInf) {
+        ProcessaCurva pc = new ProcessaCurva();
+        List<ResultadoCurva> classificadas = new ArrayList<ResultadoCurva>(curvas.size());
+        for (ResultadoCurva r : curvas) {
+            classificadas.add(pc.classificaPontos(r, curvMin, distInf));
+        }
+        return classificadas;
+    }
+
+    /*Suavizao e curvatura de cada componente. Cada componente 
+     analisada em uma tarefa separada no executor configurado; a imagem
+      usada apenas para consulta das dimenses
+     */
+    List<ResultadoCurva> calculaCurvaturas(Mat pontos_fronteira, List<Componente> componentes, double sigma) {
+        return calculaCurvaturas(pontos_fronteira, componentes, sigma, null);
+    }
+
+    /*Idem, consultando cancelamento (se no for null) antes de cada
+     componente: as restantes no so analisadas e  lanada
+     CancellationException
+     */
+    List<ResultadoCurva> calculaCurvaturas(final Mat pontos_fronteira, List<Componente> componentes,
+                                           final double sigma, final Cancelamento cancelamento) {
+        final ProcessaCurva pc = new ProcessaCurva();
+        pc.setFiltroRecursivo(filtroRecursivo);
+
+        List<Callable<ResultadoCurva>> tarefas = new ArrayList<Callable<ResultadoCurva>>();
+        for (final Componente c : componentes) {
+            tarefas.add(new Callable<ResultadoCurva>() {
+                public ResultadoCurva call() {
+                    if (cancelamento != null && cancelamento.cancelado()) return null;
+                    return pc.calculaCurvatura(pontos_fronteira, c, sigma);
+                }
+            });
+        }
+
+        List<ResultadoCurva> resultados = new ArrayList<ResultadoCurva>();
+        try {
+            for (Future<ResultadoCurva> f : executor.invokeAll(tarefas)) {
+                resultados.add(f.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+        verifica(cancelamento);
+        return resultados;
+    }
+
+    static void verifica(Cancelamento cancelamento) {
+        if (cancelamento != null && cancelamento.cancelado()) {
+            throw new CancellationException();
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package detectordefeitos;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*Processamento em lote, sem interface grfica. Percorre uma rvore de
+ diretrios, processa cada imagem encontrada com um mesmo conjunto de
+ parmetros e grava a imagem processada em um diretrio de sada que
+ espelha a estrutura do diretrio de entrada. As imagens so distribudas
+ entre vrias threads, cada uma com o seu prprio ProcessadorImagem
+ */
+
+public class ProcessadorLote {
+
+    // Intervalo entre as gravaes do arquivo de mtricas, em segundos
+    private static final int PERIODO_METRICAS = 10;
+
+    // Tamanho mximo padro do cache de pr-processamento, em MB
+    private static final long CACHE_MAXIMO_PADRAO = 2048;
+
+    private static final String USO = "Uso: DetectorDefeitos <diretorio> [--perfil nome] [--sigma s] [--vmin v|otsu|global]"
+            + " [--curvmin c] [--curvmax c] [--distinf d] [--threads n] [--saida diretorio]"
+            + " [--filtro convolucao|recursivo] [--relatorio arquivo.jsonl|arquivo.csv]"
+            + " [--metricas arquivo.prom|arquivo.json] [--mosaico linhas]"
+            + " [--cache diretorio] [--cache-max MB] [--tipo peca] [--mascaras diretorio]"
+            + " [--formato png[:nivel]|jpeg[:qualidade]]\n"
+            + "  curvmin usa a mesma escala da interface (multiplicada por "
+            + (int) ParametrosProcessamento.FACTOR + ").\n"
+            + "  Os valores omitidos vm do perfil dado em --perfil (um tipo de pea) ou do perfil \""
+            + PerfisParametros.PADRAO + "\", salvos pela interface em " + PerfisParametros.ARQUIVO_PADRAO + ".\n"
+            + "  Com --vmin otsu ou global, o V_min de cada imagem  o limiar calculado sobre o histograma"
+            + " do seu canal V (no pode ser usado com --mosaico).\n"
+            + "  O relatrio  gravado em CSV se o nome terminar em .csv, seno em JSON (um objeto por linha).\n"
+            + "  As mtricas so gravadas a cada " + PERIODO_METRICAS + " s no formato do Prometheus,"
+            + " ou em JSON se o nome terminar em .json.\n"
+            + "  --mosaico processa na resoluo original, em faixas com o nmero de linhas dado.\n"
+            + "  --cache guarda as imagens pr-processadas no diretrio dado, para que sejam reaproveitadas"
+            + " nas prximas execues (at " + CACHE_MAXIMO_PADRAO + " MB, ou o valor de --cache-max).\n"
+            + "  --tipo aplica a todas as imagens as mscaras salvas na interface para o tipo de pea"
+            + " (por exemplo \"" + RepositorioMascaras.TIPOS[0] + "\"), lidas do diretrio "
+            + RepositorioMascaras.DIRETORIO_PADRAO + " ou do dado em --mascaras. Sem --tipo, so usadas as"
+            + " mscaras indicadas no perfil, se houver.\n"
+            + "  --formato define o formato das imagens gravadas: PNG com o nvel de compresso dado (0 a 9,"
+            + " padro " + GravadorImagens.NIVEL_PNG_PADRAO + ") ou JPEG com a qualidade dada (0 a 1, padro "
+            + GravadorImagens.QUALIDADE_JPEG_PADRAO + "). O padro  png.";
+
+    private static final Metricas.Contador IMAGENS = Metricas.global().contador(
+            "detector_imagens_total", "Imagens processadas");
+    private static final Metricas.Contador FALHAS = Metricas.global().contador(
+            "detector_falhas_total", "Imagens que no puderam ser processadas");
+    private static final Metricas.Contador DEFEITOS = Metricas.global().contador(
+            "detector_defeitos_total", "Defeitos encontrados");
+    private static final Metricas.Histograma T_IMAGEM = Metricas.global().histograma(
+            "detector_imagem_segundos", null, "Tempo total de processamento de uma imagem", 1e9);
+
+    private ParametrosProcessamento parametros;
+    private int numThreads;
+    private boolean filtroRecursivo;
+    private File raiz;
+    private File saida;
+    private File relatorio;
+    private File metricas;
+    private int alturaMosaico;
+    private String vMinAutomatico;
+    private CachePreprocessamento cache;
+    private MascarasPeca mascaras;
+    private GravadorImagens.Formato formato = GravadorImagens.PADRAO;
+    private GravadorImagens gravador;
+    private RelatorioDefeitos escritor;
+
+    // Imagens gravadas at agora, de total, para o progresso
+    private final AtomicInteger gravadas = new AtomicInteger();
+    private int total;
+
+    // Cada thread usa o seu prprio processador, pois ele guarda estado (corte)
+    private final ThreadLocal<ProcessadorImagem> processadores = new ThreadLocal<ProcessadorImagem>() {
+        protected ProcessadorImagem initialValue() {
+            ProcessadorImagem processador = new ProcessadorImagem();
+            processador.setFiltroRecursivo(filtroRecursivo);
+            processador.setCache(cache);
+            processador.setMascaras(mascaras);
+            return processador;
+        }
+    };
+
+    ProcessadorLote(ParametrosProcessamento parametros, int numThreads, boolean filtroRecursivo,
+                    File raiz, File saida) {
+        this.parametros = parametros;
+        this.numThreads = numThreads;
+        this.filtroRecursivo = filtroRecursivo;
+        this.raiz = raiz;
+        this.saida = saida;
+    }
+
+    // Arquivo onde sero gravados os defeitos de cada imagem (opcional)
+    void setRelatorio(File relatorio) {
+        this.relatorio = relatorio;
+    }
+
+    /*Altura das faixas do processamento em mosaico, na resoluo original.
+     Com 0 (padro) a imagem  reduzida antes do processamento
+     */
+    void setMosaico(int alturaMosaico) {
+        this.alturaMosaico = alturaMosaico;
+    }
+
+    /*Cache das imagens pr-processadas, compartilhado pelas threads
+     (opcional). No  usado no processamento em mosaico
+     */
+    void setCache(CachePreprocessamento cache) {
+        this.cache = cache;
+    }
+
+    /*Limiar do histograma do canal V usado como V_min de cada imagem
+     ("otsu" ou "global"). Com null (padro)  usado o V_min dos parmetros
+     */
+    void setVMinAutomatico(String vMinAutomatico) {
+        this.vMinAutomatico = vMinAutomatico;
+    }
+
+    // Mscaras do tipo de pea aplicadas a todas as imagens (opcional)
+    void setMascaras(MascarasPeca mascaras) {
+        this.mascaras = mascaras;
+    }
+
+    // Formato das imagens gravadas (padro GravadorImagens.PADRAO)
+    void setFormato(GravadorImagens.Formato formato) {
+        this.formato = formato;
+    }
+
+    // Arquivo onde as mtricas sero gravadas periodicamente (opcional)
+    void setMetricas(File metricas) {
+        this.metricas = metricas;
+    }
+
+    /*Processa todas as imagens abaixo do diretrio raiz. Retorna o
+     nmero de imagens que no puderam ser processadas
+     */
+    public int executa() throws InterruptedException {
+        List<File> imagens = new ArrayList<File>();
+        listaImagens(raiz, imagens);
+
+        System.out.println(imagens.size() + " imagens em " + raiz + " (" + numThreads
+                + " threads, " + parametros
+                + (vMinAutomatico != null ? ", V_min automtico: " + vMinAutomatico : "") + ")");
+
+        if (relatorio != null) {
+            try {
+                escritor = new RelatorioDefeitos(relatorio);
+            } catch (IOException e) {
+                System.err.println("No foi possvel criar o relatrio " + relatorio + ": " + e);
+                return imagens.size();
+            }
+        }
+
+        if (metricas != null) {
+            Metricas.global().iniciaExportacao(metricas, PERIODO_METRICAS);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+
+        /*As imagens so codificadas e gravadas por outras threads; com a fila
+        cheia, as de processamento esperam*/
+        gravador = new GravadorImagens(formato, Math.max(1, numThreads / 2), 2 * numThreads, true);
+
+        long inicio = System.nanoTime();
+        total = imagens.size();
+        List<Future<File>> tarefas = new ArrayList<Future<File>>();
+        for (final File imagem : imagens) {
+            /*Os arquivos de sada so reservados aqui, na ordem das imagens,
+            para que entradas com o mesmo nome (x.jpg e x.gif) recebam sempre
+            os mesmos nomes, independente da ordem em que terminam*/
+            File reservado = null;
+            IOException erroReserva = null;
+            try {
+                reservado = arquivoSaida(imagem);
+            } catch (IOException e) {
+                erroReserva = e;
+            }
+            final File destino = reservado;
+            final IOException erro = erroReserva;
+            tarefas.add(pool.submit(new Callable<File>() {
+                public File call() throws Exception {
+                    if (erro != null) throw erro;
+                    return processa(imagem, destino);
+                }
+            }));
+        }
+
+        // O progresso  mostrado quando cada imagem termina de ser gravada
+        int falhas = 0;
+        for (int i = 0; i < tarefas.size(); i++) {
+            try {
+                tarefas.get(i).get();
+            } catch (ExecutionException e) {
+                falhas++;
+                FALHAS.incrementa();
+                System.err.println("Erro ao processar " + imagens.get(i) + ": " + e.getCause());
+                registra(ResultadoImagem.falha(relativo(raiz, imagens.get(i)), String.valueOf(e.getCause())));
+            }
+        }
+        pool.shutdown();
+
+        int falhasGravacao = gravador.fecha();
+        if (falhasGravacao > 0) {
+            falhas += falhasGravacao;
+            FALHAS.soma(falhasGravacao);
+        }
+
+        if (metricas != null) {
+            Metricas.global().pararExportacao(metricas);
+        }
+
+        if (escritor != null) {
+            try {
+                escritor.close();
+            } catch (IOException e) {
+                System.err.println("Erro ao gravar o relatrio " + relatorio + ": " + e);
+            }
+        }
+
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        System.out.println(String.format("%d imagens processadas em %.1f s (%.2f imagens/s), %d falhas",
+                imagens.size() - falhas, segundos, (imagens.size() - falhas) / segundos, falhas));
+        System.out.println(CacheKernelGaussiano.compartilhado());
+
+        return falhas;
+    }
+
+    /*Processa uma imagem e enfileira a gravao do resultado no arquivo
+     reservado outputfile, que  devolvido. A linha do relatrio  gravada quando a
+     gravao da imagem termina, indicando se ela foi gravada
+     */
+    File processa(File arquivo, File outputfile) throws IOException, InterruptedException {
+        final ProcessadorImagem processador = processadores.get();
+
+        long inicio = System.nanoTime();
+        ResultadoImagem resultado;
+        if (alturaMosaico > 0) {
+            resultado = new ProcessadorMosaico(processador, alturaMosaico).processa(arquivo,
+                    parametros.vMin, parametros.vMax, parametros.curvMin, parametros.curvMax,
+                    parametros.sigma, parametros.distInf);
+        } else {
+            long t = inicio;
+            // Com o V_min fixo, a mscara  gerada junto com os planos da imagem
+            ImagemPreprocessada imagem = vMinAutomatico != null ? processador.abreImagem(arquivo)
+                    : processador.abreImagem(arquivo, processador.janela(parametros.vMin, parametros.vMax));
+            long leitura = System.nanoTime() - t;
+
+            t = System.nanoTime();
+            double vMin = parametros.vMin;
+            if (vMinAutomatico != null) {
+                Histogram h = new Histogram(imagem.getHistogramaV());
+                vMin = vMinAutomatico.equals("otsu") ? h.getThresholdOtsu() : h.getThresholdGlobal();
+            }
+            Mat mascara = imagem.getMascara(processador.janela(vMin, parametros.vMax));
+            if (mascaras != null) mascaras.aplica(mascara);
+            long threshold = System.nanoTime() - t;
+
+            resultado = processador.processaImagem(mascara, parametros.curvMin,
+                    parametros.curvMax, parametros.sigma, parametros.distInf);
+            resultado.adicionaTempo("leitura", leitura);
+            resultado.adicionaTempo("threshold", threshold);
+        }
+        resultado.setArquivo(relativo(raiz, arquivo));
+        resultado.setSaida(relativo(saida, outputfile));
+
+        // A imagem s volta para o processador depois de gravada
+        final BufferedImage imagem = resultado.getImagem();
+        final ResultadoImagem concluido = resultado;
+        resultado.setImagem(null);
+        gravador.grava(imagem, outputfile, new GravadorImagens.Conclusao() {
+            public void concluida(File gerado, boolean gravada) {
+                processador.devolveImagem(imagem);
+                // Os erros de gravao j so mostrados pelo gravador
+                if (gravada) System.out.println("[" + gravadas.incrementAndGet() + "/" + total + "] " + gerado);
+                concluido.setGravada(gravada);
+                registra(concluido);
+            }
+        });
+
+        T_IMAGEM.registraDesde(inicio);
+        IMAGENS.incrementa();
+        DEFEITOS.soma(resultado.getDefeitos().size());
+        return outputfile;
+    }
+
+    private void registra(ResultadoImagem resultado) {
+        if (escritor == null) return;
+        try {
+            escritor.escreve(resultado);
+        } catch (IOException e) {
+            System.err.println("Erro ao gravar o relatrio " + relatorio + ": " + e);
+        }
+    }
+
+    // Caminho do arquivo relativo ao diretrio, com / como separador
+    private static String relativo(File diretorio, File arquivo) {
+        return diretorio.toURI().relativize(arquivo.toURI()).getPath();
+    }
+
+    /*Arquivo de sada no diretrio de sada, na mesma posio relativa da
+     entrada. Entradas que s diferem na extenso recebem nomes diferentes
+     */
+    private File arquivoSaida(File arquivo) throws IOException {
+        String relativo = relativo(raiz, arquivo);
+        File nome = new File(saida, relativo.substring(0, relativo.lastIndexOf('.')) + "_PROC");
+        return gravador.reserva(nome.getParentFile(), nome.getName());
+    }
+
+    // Lista recursivamente as imagens de um diretrio, em ordem alfabtica
+    static void listaImagens(File diretorio, List<File> imagens) {
+        File[] arquivos = diretorio.listFiles();
+        if (arquivos == null) return;
+        Arrays.sort(arquivos);
+
+        for (File f : arquivos) {
+            if (f.isDirectory()) {
+                listaImagens(f, imagens);
+            } else if (ehImagem(f)) {
+                imagens.add(f);
+            }
+        }
+    }
+
+    // Imagens aceitas pelo filtro da interface, ignorando resultados j processados
+    static boolean ehImagem(File f) {
+        String nome = f.getName().toLowerCase();
+        if (nome.contains("_proc")) return false;
+        return nome.endsWith(".jpg") || nome.endsWith(".jpeg") || nome.endsWith(".gif");
+    }
+
+    /*Interpreta os argumentos da linha de comando e executa o lote.
+     Retorna o cdigo de sada do programa
+     */
+    public static int executaLinhaDeComando(String[] args) {
+        if (args[0].startsWith("-")) {
+            System.err.println(USO);
+            return 2;
+        }
+
+        File raiz = new File(args[0]);
+        if (!raiz.isDirectory()) {
+            System.err.println("Diretrio inexistente: " + raiz);
+            return 2;
+        }
+
+        // Perfis salvos pela interface; o perfil  escolhido antes dos demais argumentos
+        PerfisParametros perfis;
+        try {
+            perfis = PerfisParametros.carrega();
+        } catch (IOException e) {
+            System.err.println("No foi possvel ler os perfis de parmetros: " + e.getMessage());
+            return 2;
+        }
+        String perfil = PerfisParametros.PADRAO;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--perfil")) perfil = args[i + 1];
+        }
+        ParametrosProcessamento parametros = perfis.get(perfil);
+        if (parametros == null) {
+            System.err.println("Perfil inexistente: " + perfil + " (perfis: " + perfis.nomes() + ")");
+            return 2;
+        }
+
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        boolean filtroRecursivo = false;
+        File saida = new File(raiz.getAbsoluteFile().getParentFile(), raiz.getName() + "_PROC");
+        File relatorio = null;
+        File metricas = null;
+        int alturaMosaico = 0;
+        String vMinAutomatico = null;
+        File diretorioCache = null;
+        long cacheMaximo = CACHE_MAXIMO_PADRAO;
+        String tipo = null;
+        GravadorImagens.Formato formato = GravadorImagens.PADRAO;
+        File diretorioMascaras = new File(RepositorioMascaras.DIRETORIO_PADRAO);
+
+        try {
+            for (int i = 1; i < args.length; i += 2) {
+                if (i + 1 >= args.length) throw new IllegalArgumentException(args[i]);
+                String valor = args[i + 1];
+
+                if (args[i].equals("--perfil")) continue;
+                else if (args[i].equals("--sigma")) parametros.sigma = Double.valueOf(valor);
+                else if (args[i].equals("--vmin") && (valor.equals("otsu") || valor.equals("global")))
+                    vMinAutomatico = valor;
+                else if (args[i].equals("--vmin")) parametros.vMin = Double.valueOf(valor);
+                else if (args[i].equals("--curvmin"))
+                    parametros.curvMin = Double.valueOf(valor) / ParametrosProcessamento.FACTOR;
+                else if (args[i].equals("--curvmax")) parametros.curvMax = Double.valueOf(valor);
+                else if (args[i].equals("--distinf")) parametros.distInf = Double.valueOf(valor);
+                else if (args[i].equals("--threads")) numThreads = Math.max(1, Integer.valueOf(valor));
+                else if (args[i].equals("--saida")) saida = new File(valor);
+                else if (args[i].equals("--relatorio")) relatorio = new File(valor);
+                else if (args[i].equals("--metricas")) metricas = new File(valor);
+                else if (args[i].equals("--mosaico")) alturaMosaico = Math.max(0, Integer.valueOf(valor));
+                else if (args[i].equals("--cache")) diretorioCache = new File(valor);
+                else if (args[i].equals("--cache-max")) cacheMaximo = Math.max(0, Long.valueOf(valor));
+                else if (args[i].equals("--tipo")) tipo = valor;
+                else if (args[i].equals("--mascaras")) diretorioMascaras = new File(valor);
+                else if (args[i].equals("--formato")) formato = GravadorImagens.Formato.de(valor);
+                else if (args[i].equals("--filtro") && valor.equals("recursivo")) filtroRecursivo = true;
+                else if (args[i].equals("--filtro") && valor.equals("convolucao")) filtroRecursivo = false;
+                else throw new IllegalArgumentException(args[i]);
+            }
+            if (vMinAutomatico != null && alturaMosaico > 0) {
+                throw new IllegalArgumentException("--vmin " + vMinAutomatico + " com --mosaico");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Argumento invlido: " + e.getMessage());
+            System.err.println(USO);
+            return 2;
+        }
+
+        // Sem --tipo, as mscaras do perfil, se j tiverem sido salvas
+        boolean tipoDoPerfil = tipo == null && parametros.mascaras != null;
+        if (tipoDoPerfil) tipo = parametros.mascaras;
+
+        MascarasPeca mascaras = null;
+        if (tipo != null) {
+            // As mscaras so lidas antes de qualquer ProcessadorImagem, que carregaria a biblioteca
+            System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+            try {
+                mascaras = new RepositorioMascaras(diretorioMascaras).carrega(tipo);
+            } catch (IOException e) {
+                System.err.println("No foi possvel ler as mscaras de " + tipo + ": " + e);
+                return 2;
+            }
+            if (mascaras == null && !tipoDoPerfil) {
+                System.err.println("No h mscaras salvas para \"" + tipo + "\" em " + diretorioMascaras);
+                return 2;
+            }
+        }
+
+        try {
+            ProcessadorLote lote = new ProcessadorLote(parametros, numThreads, filtroRecursivo, raiz, saida);
+            lote.setRelatorio(relatorio);
+            lote.setMetricas(metricas);
+            lote.setMosaico(alturaMosaico);
+            lote.setVMinAutomatico(vMinAutomatico);
+            lote.setMascaras(mascaras);
+            lote.setFormato(formato);
+            if (diretorioCache != null) {
+                try {
+                    lote.setCache(new CachePreprocessamento(diretorioCache, cacheMaximo * 1024 * 1024));
+                } catch (IOException e) {
+                    System.err.println("No foi possvel usar o cache " + diretorioCache + ": " + e);
+                }
+            }
+            int falhas = lote.executa();
+            return falhas == 0 ? 0 : 1;
+        } catch (InterruptedException e) {
+            return 1;
+        }
+    }
+}
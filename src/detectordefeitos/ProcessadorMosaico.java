@@ -0,0 +1,153 @@
+package detectordefeitos;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*Processamento de uma imagem na resoluo original, em mosaico. A imagem
+  dividida em faixas horizontais de altura fixa que so processadas em
+ paralelo: leitura, suavizao, separao do canal V, binarizao,
+ deteco de fronteiras e rotulao dos runs. Cada faixa  lida do
+ arquivo (LeitorImagem.leLinhas) com HALO linhas a mais acima e abaixo,
+ o suficiente para que a suavizao (5x5) e a deteco de fronteiras
+ (vizinhos imediatos) deem nas linhas da faixa o mesmo resultado que
+ dariam na imagem inteira. De cada faixa so guardados apenas os runs
+ das fronteiras; os pixels so descartados assim que ela termina.
+
+ Em seguida os runs das faixas so costurados como no
+ RotuladorComponentes, e as componentes seguem para a anlise de
+ curvatura normal, que no precisa de halo. Como as fronteiras so
+ apenas pixels pretos sobre fundo branco, a imagem de fronteiras usada
+ no desenho do resultado  refeita a partir dos runs, depois de todas as
+ faixas.
+
+ Assim a imagem original nunca fica inteira na memria: durante as
+ faixas, a memria usada  a das faixas em processamento simultneo
+ mais os runs. A nica imagem do tamanho original  a de sada, criada
+ depois delas. O corte de eliminao de detalhes da interface (feito na
+ resoluo reduzida) no  considerado; as mscaras do tipo de pea, se
+ houver, so redimensionadas para a resoluo original e aplicadas a
+ cada faixa
+ */
+
+public class ProcessadorMosaico {
+
+    // Linhas extras de cada lado da faixa: 2 da suavizao 5x5 e 1 da deteco de fronteiras
+    static final int HALO = 3;
+
+    // Componentes com at este nmero de pontos so rudo, como em encontra_tudo
+    private static final int MINIMO_PONTOS = 10;
+
+    private final ProcessadorImagem processador;
+    private final int alturaFaixa;
+
+    ProcessadorMosaico(ProcessadorImagem processador, int alturaFaixa) {
+        this.processador = processador;
+        this.alturaFaixa = Math.max(1, alturaFaixa);
+    }
+
+    public ResultadoImagem processa(final File arquivo, double vMin, double vMax,
+                                    double curvMin, double curvMax, double sigma, double distInf)
+            throws IOException {
+        long t = System.nanoTime();
+        Size tamanho = LeitorImagem.tamanho(arquivo);
+        final int largura = (int) tamanho.width;
+        final int altura = (int) tamanho.height;
+        ResultadoImagem resultado = new ResultadoImagem(largura, altura);
+
+        final ThresholdJanelaV janela = new ThresholdJanelaV(vMin, vMax);
+        final RotuladorComponentes.Runs[] runs = new RotuladorComponentes.Runs[(altura + alturaFaixa - 1) / alturaFaixa];
+
+        try {
+            Faixas.executa(altura, runs.length, new Faixas.Tarefa() {
+                public void executa(int faixa, int inicio, int fim) {
+                    try {
+                        runs[faixa] = processaFaixa(arquivo, largura, altura, janela, inicio, fim);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        t = ProcessadorImagem.marcaTempo(resultado, "faixas", t);
+
+        // Imagem de fronteiras refeita a partir dos runs, antes da costura
+        final Mat fronteiras = new Mat(altura, largura, CvType.CV_8UC3);
+        Faixas.executa(altura, runs.length, new Faixas.Tarefa() {
+            public void executa(int faixa, int inicio, int fim) {
+                desenhaRuns(runs[faixa], fronteiras, largura, inicio, fim);
+            }
+        });
+
+        // Costura as faixas e elimina as componentes pequenas (rudo)
+        final Scalar branco = new Scalar(255, 255, 255);
+        ArrayList<Componente> componentes = RotuladorComponentes.agrupa(RotuladorComponentes.junta(runs),
+                MINIMO_PONTOS, new RotuladorComponentes.Descarte() {
+                    public void descarta(int linha, int inicio, int fim) {
+                        fronteiras.submat(linha, linha + 1, inicio, fim + 1).setTo(branco);
+                    }
+                });
+        t = ProcessadorImagem.marcaTempo(resultado, "componentes", t);
+
+        return processador.finalizaImagem(resultado, fronteiras, componentes, curvMin, curvMax, sigma, distInf, t);
+    }
+
+    /*L e processa as linhas [inicio, fim) da imagem, devolvendo os runs
+     das fronteiras dessas linhas
+     */
+    private RotuladorComponentes.Runs processaFaixa(File arquivo, int largura, int altura, ThresholdJanelaV janela,
+                                                    int inicio, int fim) throws IOException {
+        int de = Math.max(0, inicio - HALO);
+        int ate = Math.min(altura, fim + HALO);
+
+        Mat faixa = ConversorImagem.paraMat(LeitorImagem.leLinhas(arquivo, de, ate));
+        if (faixa.channels() == 1) {
+            Imgproc.cvtColor(faixa, faixa, Imgproc.COLOR_GRAY2BGR);
+        }
+
+        // Mesmas etapas de ProcessadorImagem.preprocessa e realizaThreshold, sem redimensionar
+        Imgproc.GaussianBlur(faixa, faixa, new Size(5, 5), 0.8);
+        Mat mascara = ImagemPreprocessada.separa(faixa, janela).getMascara(janela);
+        MascarasPeca mascaras = processador.getMascaras();
+        if (mascaras != null) {
+            mascaras.aplica(mascara, de, altura);
+        }
+        Mat marcada = processador.marcaFronteiras(mascara);
+
+        // Apenas as linhas da prpria faixa (sem o halo)
+        Mat nucleo = marcada.submat(inicio - de, fim - de, 0, largura);
+        if (mascaras != null) {
+            mascaras.apagaContorno(nucleo, inicio, altura);
+        }
+
+        byte[] pixels = new byte[(fim - inicio) * largura * 3];
+        nucleo.get(0, 0, pixels);
+
+        RotuladorComponentes.Runs runs = RotuladorComponentes.rotulaFaixa(pixels, largura, 3, 0, fim - inicio);
+        for (int r = 0; r < runs.n; r++) {
+            runs.linha[r] += inicio;
+        }
+        return runs;
+    }
+
+    // Pinta de preto, sobre fundo branco, os runs das linhas [inicio, fim)
+    private static void desenhaRuns(RotuladorComponentes.Runs runs, Mat fronteiras, int largura, int inicio, int fim) {
+        byte[] pixels = new byte[(fim - inicio) * largura * 3];
+        Arrays.fill(pixels, (byte) 255);
+        for (int r = 0; r < runs.n; r++) {
+            int base = (runs.linha[r] - inicio) * largura;
+            Arrays.fill(pixels, (base + runs.inicio[r]) * 3, (base + runs.fim[r] + 1) * 3, (byte) 0);
+        }
+        fronteiras.put(inicio, 0, pixels);
+    }
+}
@@ -0,0 +1,163 @@
+package detectordefeitos;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*Processamento de uma imagem guardando o resultado de cada etapa, para
+ que um novo processamento com outros parmetros refaa apenas as etapas
+ afetadas.  usado pela interface, onde os parmetros costumam ser
+ ajustados vrias vezes sobre a mesma imagem.
+
+ As etapas e os parmetros de que dependem so:
+   binarizao                   vMin, vMax
+   fronteiras e componentes      a mscara binarizada (e o corte)
+   suavizao e curvatura        sigma (e o tipo de filtro)
+   pontos de inflexo            curvMin, distInf
+   desenho                       sempre refeito
+
+ Mudando apenas curvMin ou distInf, as curvas e a curvatura (kappa) de
+ cada componente so reaproveitadas e s os pontos de inflexo so
+ recalculados. Mudando vMin, as etapas seguintes s so refeitas se a
+ mscara tiver de fato mudado.
+
+ A imagem de entrada  o plano V (ImagemPreprocessada.getV), ou
+ qualquer imagem cujo ltimo canal seja o V. Sempre que a imagem ou o
+ corte mudarem, invalida() deve ser chamado, depois de alterada a imagem.
+ Os mtodos de processamento so sincronizados, para que possam ser
+ executados fora da thread da interface. invalida() no espera por eles:
+ apenas avana a gerao, e as etapas guardadas em uma gerao anterior
+ so descartadas na prxima chamada (inclusive as que o processamento
+ em andamento ainda vier a guardar)
+ */
+
+public class ProcessamentoIncremental {
+
+    private final ProcessadorImagem processador;
+
+    // Incrementada por invalida(); vista  a gerao das etapas guardadas
+    private final AtomicInteger geracao = new AtomicInteger();
+    private int vista;
+
+    // Binarizao
+    private Mat planoV;
+    private double vMin = Double.NaN;
+    private double vMax = Double.NaN;
+    private Mat binaria;
+    private byte[] mascara;
+
+    // Fronteiras (sem os desenhos) e componentes
+    private Mat fronteiras;
+    private ArrayList<Componente> componentes;
+
+    // Curvas de cada componente, sem os pontos de inflexo
+    private double sigma = Double.NaN;
+    private boolean filtroRecursivo;
+    private List<ResultadoCurva> curvas;
+
+    ProcessamentoIncremental(ProcessadorImagem processador) {
+        this.processador = processador;
+    }
+
+    /*Descarta todas as etapas guardadas. Pode ser chamado na thread da
+     interface durante um processamento, sem esperar que ele termine
+     */
+    public void invalida() {
+        geracao.incrementAndGet();
+    }
+
+    private void descarta() {
+        planoV = null;
+        binaria = null;
+        mascara = null;
+        fronteiras = null;
+        componentes = null;
+        curvas = null;
+    }
+
+    /*Apenas a primeira etapa: a mscara binarizada, que pode ser exibida
+     antes do resultado completo. A mscara devolvida no deve ser alterada
+     */
+    public synchronized Mat binariza(Mat imagemV, double vMin, double vMax) {
+        return binariza(new ResultadoImagem(imagemV.cols(), imagemV.rows()), imagemV, vMin, vMax);
+    }
+
+    public synchronized ResultadoImagem processa(Mat imagemV, double vMin, double vMax,
+                                                 double curvMin, double curvMax, double sigma, double distInf) {
+        return processa(imagemV, vMin, vMax, curvMin, curvMax, sigma, distInf, null);
+    }
+
+    /*Idem, abandonando o processamento (com CancellationException) se
+     cancelamento indicar, entre as etapas e entre as componentes da
+     curvatura. Uma etapa interrompida no  guardada
+     */
+    public synchronized ResultadoImagem processa(Mat imagemV, double vMin, double vMax,
+                                                 double curvMin, double curvMax, double sigma, double distInf,
+                                                 ProcessadorImagem.Cancelamento cancelamento) {
+        ResultadoImagem resultado = new ResultadoImagem(imagemV.cols(), imagemV.rows());
+        binariza(resultado, imagemV, vMin, vMax);
+        long t = System.nanoTime();
+
+        if (fronteiras == null) {
+            ProcessadorImagem.verifica(cancelamento);
+            Mat novas = processador.encontra_fronteiras(binaria);
+            t = ProcessadorImagem.marcaTempo(resultado, "fronteiras", t);
+
+            ProcessadorImagem.verifica(cancelamento);
+            componentes = processador.encontra_tudo(novas);
+            fronteiras = novas;
+            t = ProcessadorImagem.marcaTempo(resultado, "componentes", t);
+            curvas = null;
+        }
+
+        if (curvas == null || sigma != this.sigma || processador.isFiltroRecursivo() != filtroRecursivo) {
+            ProcessadorImagem.verifica(cancelamento);
+            curvas = processador.calculaCurvaturas(fronteiras, componentes, sigma, cancelamento);
+            this.sigma = sigma;
+            this.filtroRecursivo = processador.isFiltroRecursivo();
+            t = ProcessadorImagem.marcaTempo(resultado, "curvatura", t);
+        }
+
+        ProcessadorImagem.verifica(cancelamento);
+        List<ResultadoCurva> classificadas = processador.classificaPontos(curvas, curvMin, distInf);
+        t = ProcessadorImagem.marcaTempo(resultado, "inflexoes", t);
+        ProcessadorImagem.verifica(cancelamento);
+
+        // O desenho  feito sobre uma cpia, para que as fronteiras sejam reaproveitadas
+        return processador.desenha(resultado, fronteiras.clone(), classificadas, t);
+    }
+
+    /*Refaz a binarizao se a imagem ou a janela mudaram. Se a mscara
+     mudar, as etapas seguintes so descartadas
+     */
+    private Mat binariza(ResultadoImagem resultado, Mat imagemV, double vMin, double vMax) {
+        int atual = geracao.get();
+        if (atual != vista || imagemV != planoV) {
+            descarta();
+            vista = atual;
+            planoV = imagemV;
+        }
+
+        if (binaria == null || vMin != this.vMin || vMax != this.vMax) {
+            long t = System.nanoTime();
+            Mat nova = processador.realizaThreshold(imagemV, vMin, vMax);
+            byte[] pixels = new byte[nova.rows() * nova.cols()];
+            nova.get(0, 0, pixels);
+            ProcessadorImagem.marcaTempo(resultado, "threshold", t);
+
+            this.vMin = vMin;
+            this.vMax = vMax;
+            if (!Arrays.equals(pixels, mascara)) {
+                binaria = nova;
+                mascara = pixels;
+                fronteiras = null;
+                componentes = null;
+                curvas = null;
+            }
+        }
+        return binaria;
+    }
+}
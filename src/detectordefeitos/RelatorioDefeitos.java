@@ -0,0 +1,167 @@
+package detectordefeitos;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Map;
+
+/*Relatrio dos defeitos encontrados, em um formato que possa ser lido por
+ outros sistemas sem precisar interpretar a imagem anotada.
+
+ Se o nome do arquivo terminar em .csv  gravada uma linha por defeito,
+ com cabealho; uma imagem sem defeitos tem uma linha com as colunas do
+ defeito vazias, para que no se confunda com uma imagem no processada.
+ A coluna (ou campo) saida  o arquivo da imagem anotada, relativo ao
+ diretrio de sada, gravada indica se ele foi gravado, e
+ situacao  "ok" ou "erro"; uma imagem que no pde ser processada tem
+ um registro com a mensagem em erro e os demais campos vazios.
+ Caso contrrio  gravado um objeto JSON por imagem, um
+ por linha (JSON lines), com os defeitos e o tempo de cada etapa em
+ milissegundos. Pode ser usado por vrias threads ao mesmo tempo
+ */
+
+public class RelatorioDefeitos implements Closeable {
+
+    private static final String CABECALHO_CSV = "arquivo,largura,altura,componentes,saida,gravada,componente,indice,x,y,curvatura,situacao,erro";
+
+    private final Writer saida;
+    private final boolean csv;
+
+    RelatorioDefeitos(File arquivo) throws IOException {
+        this.csv = arquivo.getName().toLowerCase().endsWith(".csv");
+        this.saida = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(arquivo), Charset.forName("UTF-8")));
+        if (csv) {
+            saida.write(CABECALHO_CSV);
+            saida.write('\n');
+        }
+    }
+
+    // Grava o resultado de uma imagem
+    public void escreve(ResultadoImagem resultado) throws IOException {
+        String texto = csv ? formataCsv(resultado) : formataJson(resultado);
+        synchronized (saida) {
+            saida.write(texto);
+        }
+    }
+
+    public void close() throws IOException {
+        synchronized (saida) {
+            saida.close();
+        }
+    }
+
+    static String formataJson(ResultadoImagem r) {
+        StringBuilder sb = new StringBuilder(256 + 64 * r.getDefeitos().size());
+        sb.append("{\"arquivo\":");
+        textoJson(sb, r.getArquivo());
+        sb.append(",\"situacao\":");
+        textoJson(sb, r.getSituacao());
+        if (r.getErro() != null) {
+            sb.append(",\"erro\":");
+            textoJson(sb, r.getErro());
+            sb.append(",\"gravada\":false}\n");
+            return sb.toString();
+        }
+        sb.append(",\"largura\":").append(r.getLargura());
+        sb.append(",\"altura\":").append(r.getAltura());
+        sb.append(",\"componentes\":").append(r.getNumComponentes());
+        sb.append(",\"pontosCurvaturaZero\":").append(r.getPontosCurvaturaZero());
+        sb.append(",\"saida\":");
+        textoJson(sb, r.getSaida());
+        sb.append(",\"gravada\":").append(r.isGravada());
+
+        sb.append(",\"defeitos\":[");
+        boolean primeiro = true;
+        for (Defeito d : r.getDefeitos()) {
+            if (!primeiro) sb.append(',');
+            primeiro = false;
+            sb.append("{\"x\":").append(numero(d.x, 2));
+            sb.append(",\"y\":").append(numero(d.y, 2));
+            sb.append(",\"curvatura\":").append(numero(d.curvatura, 6));
+            sb.append(",\"componente\":").append(d.componente);
+            sb.append(",\"indice\":").append(d.indice).append('}');
+        }
+
+        sb.append("],\"tempos\":{");
+        primeiro = true;
+        for (Map.Entry<String, Long> t : r.getTempos().entrySet()) {
+            if (!primeiro) sb.append(',');
+            primeiro = false;
+            textoJson(sb, t.getKey());
+            sb.append(':').append(numero(t.getValue() / 1e6, 3));
+        }
+        sb.append("}}\n");
+        return sb.toString();
+    }
+
+    static String formataCsv(ResultadoImagem r) {
+        StringBuilder sb = new StringBuilder(64 * (r.getDefeitos().size() + 1));
+        String fim = "," + r.getSituacao() + "," + textoCsv(r.getErro()) + "\n";
+        if (r.getErro() != null) {
+            return sb.append(textoCsv(r.getArquivo())).append(",,,,,false,,,,,").append(fim).toString();
+        }
+
+        String inicio = textoCsv(r.getArquivo()) + "," + r.getLargura() + "," + r.getAltura() + ","
+                + r.getNumComponentes() + "," + textoCsv(r.getSaida()) + "," + r.isGravada() + ",";
+        if (r.getDefeitos().isEmpty()) {
+            return sb.append(inicio).append(",,,,").append(fim).toString();
+        }
+        for (Defeito d : r.getDefeitos()) {
+            sb.append(inicio).append(d.componente).append(',').append(d.indice).append(',');
+            sb.append(numero(d.x, 2)).append(',').append(numero(d.y, 2)).append(',');
+            sb.append(numero(d.curvatura, 6)).append(fim);
+        }
+        return sb.toString();
+    }
+
+    // Nmero com as casas decimais dadas, sempre com ponto como separador
+    private static String numero(double valor, int casas) {
+        if (Double.isNaN(valor) || Double.isInfinite(valor)) return "null";
+        return String.format(Locale.ROOT, "%." + casas + "f", valor);
+    }
+
+    private static void textoJson(StringBuilder sb, String texto) {
+        if (texto == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    private static String textoCsv(String texto) {
+        if (texto == null) return "";
+        if (texto.indexOf(',') < 0 && texto.indexOf('"') < 0 && texto.indexOf('\n') < 0) return texto;
+        return '"' + texto.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,112 @@
+package detectordefeitos;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/*Mscaras salvas por tipo de pea. As estaes de cmera fixa fotografam
+ cada tipo de pea sempre no mesmo enquadramento, ento a regio de
+ interesse e as regies excludas so desenhadas uma vez e reaplicadas a
+ todas as fotos do mesmo tipo.
+
+ Cada tipo tem um arquivo no diretrio (o nome do tipo, em minsculas e
+ sem espaos, com a extenso .mascara), lido apenas na primeira vez em que
+ o tipo  pedido e mantido em memria. A gravao  feita em um arquivo
+ temporrio movido sobre o anterior, para que um arquivo incompleto nunca
+ seja lido. Pode ser usado por vrias threads ao mesmo tempo
+ */
+
+public class RepositorioMascaras {
+
+    // Diretrio usado pela interface e, se outro no for dado, pelo processamento em lote
+    static final String DIRETORIO_PADRAO = "Mascaras";
+
+    // Tipos de pea oferecidos na interface
+    static final String[] TIPOS = {"Porta Spin Trazeira D", "Paralama Spin D"};
+
+    private static final int MAGICO = 0x4444524d;
+    private static final int VERSAO = 1;
+    private static final String EXTENSAO = ".mascara";
+
+    private final File diretorio;
+
+    // Mscaras j lidas (null para os tipos sem arquivo)
+    private final Map<String, MascarasPeca> carregadas = new HashMap<String, MascarasPeca>();
+
+    RepositorioMascaras(File diretorio) {
+        this.diretorio = diretorio;
+    }
+
+    /*Mscaras do tipo de pea, ou null se no houver mscaras salvas para
+     ele. As mscaras devolvidas so compartilhadas e no devem ser
+     alteradas (use copia())
+     */
+    public synchronized MascarasPeca carrega(String tipo) throws IOException {
+        if (carregadas.containsKey(tipo)) return carregadas.get(tipo);
+
+        File arquivo = arquivo(tipo);
+        MascarasPeca mascaras = null;
+        if (arquivo.isFile()) {
+            DataInputStream entrada = new DataInputStream(new BufferedInputStream(Files.newInputStream(arquivo.toPath())));
+            try {
+                if (entrada.readInt() != MAGICO || entrada.readInt() != VERSAO) {
+                    throw new IOException("Arquivo de mscaras invlido: " + arquivo);
+                }
+                String salvo = entrada.readUTF();
+                if (!salvo.equals(tipo)) {
+                    throw new IOException("O arquivo " + arquivo + " contm as mscaras de " + salvo);
+                }
+                mascaras = MascarasPeca.le(entrada);
+            } finally {
+                entrada.close();
+            }
+        }
+        carregadas.put(tipo, mascaras);
+        return mascaras;
+    }
+
+    // Salva as mscaras do tipo de pea, substituindo as anteriores
+    public void salva(String tipo, MascarasPeca mascaras) throws IOException {
+        if (!diretorio.isDirectory() && !diretorio.mkdirs()) {
+            throw new IOException("No foi possvel criar o diretrio " + diretorio);
+        }
+
+        // Cpia, para que alteraes feitas depois pela interface no afetem as salvas
+        MascarasPeca salvas = mascaras.copia(mascaras.linhas(), mascaras.colunas());
+
+        File arquivo = arquivo(tipo);
+        File temporario = File.createTempFile(arquivo.getName(), ".tmp", diretorio);
+        try {
+            DataOutputStream saida = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporario.toPath())));
+            try {
+                saida.writeInt(MAGICO);
+                saida.writeInt(VERSAO);
+                saida.writeUTF(tipo);
+                salvas.grava(saida);
+            } finally {
+                saida.close();
+            }
+            Files.move(temporario.toPath(), arquivo.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            temporario.delete();
+        }
+
+        synchronized (this) {
+            carregadas.put(tipo, salvas);
+        }
+    }
+
+    // Arquivo do tipo de pea: "Paralama Spin D" -> paralama_spin_d.mascara
+    File arquivo(String tipo) {
+        String nome = tipo.trim().toLowerCase().replaceAll("[^a-z0-9]+", "_");
+        return new File(diretorio, nome + EXTENSAO);
+    }
+}
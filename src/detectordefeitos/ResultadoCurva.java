@@ -0,0 +1,56 @@
+package detectordefeitos;
+
+import java.util.List;
+
+/*Resultado da anlise de curvatura de uma componente: a curva mdia
+ preenchida, a curva suavizada, a curvatura (kappa) em cada ponto e os
+ ndices dos pontos de inflexo (com curvatura acima do mnimo) e dos
+ pontos de curvatura zero
+ */
+
+public class ResultadoCurva {
+
+    final double[] pointsX;
+    final double[] pointsY;
+    final double[] suaveX;
+    final double[] suaveY;
+    final double[] kappa;
+    final double[] kappa_norm;
+    final int[] inflexoes;
+    final int[] curvaturaZero;
+
+    ResultadoCurva(double[] pointsX, double[] pointsY, double[] suaveX, double[] suaveY,
+                   double[] kappa, double[] kappa_norm,
+                   List<Integer> inflexoes, List<Integer> curvaturaZero) {
+        this.pointsX = pointsX;
+        this.pointsY = pointsY;
+        this.suaveX = suaveX;
+        this.suaveY = suaveY;
+        this.kappa = kappa;
+        this.kappa_norm = kappa_norm;
+        this.inflexoes = paraVetor(inflexoes);
+        this.curvaturaZero = paraVetor(curvaturaZero);
+    }
+
+    private ResultadoCurva(ResultadoCurva curva, int[] inflexoes) {
+        this.pointsX = curva.pointsX;
+        this.pointsY = curva.pointsY;
+        this.suaveX = curva.suaveX;
+        this.suaveY = curva.suaveY;
+        this.kappa = curva.kappa;
+        this.kappa_norm = curva.kappa_norm;
+        this.inflexoes = inflexoes;
+        this.curvaturaZero = curva.curvaturaZero;
+    }
+
+    // Mesmo resultado com outros pontos de inflexo (as curvas so compartilhadas)
+    ResultadoCurva comInflexoes(List<Integer> inflexoes) {
+        return new ResultadoCurva(this, paraVetor(inflexoes));
+    }
+
+    private static int[] paraVetor(List<Integer> indices) {
+        int[] vetor = new int[indices.size()];
+        for (int i = 0; i < vetor.length; i++) vetor[i] = indices.get(i);
+        return vetor;
+    }
+}
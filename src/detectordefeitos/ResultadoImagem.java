@@ -0,0 +1,131 @@
+package detectordefeitos;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*Resultado do processamento de uma imagem: os defeitos encontrados, o
+ nmero de componentes e de pontos de curvatura zero, o tempo gasto em
+ cada etapa e a imagem anotada (fronteiras, curvas mdias e defeitos)
+ */
+
+public class ResultadoImagem {
+
+    private String arquivo;
+    private int largura;
+    private int altura;
+    private int numComponentes;
+    private int pontosCurvaturaZero;
+    private final List<Defeito> defeitos = new ArrayList<Defeito>();
+
+    // Tempo de cada etapa em nanossegundos, na ordem em que foram executadas
+    private final Map<String, Long> tempos = new LinkedHashMap<String, Long>();
+
+    private BufferedImage imagem;
+
+    // Se a imagem anotada foi gravada (processamento em lote)
+    private boolean gravada;
+
+    // Arquivo da imagem anotada, relativo ao diretrio de sada (processamento em lote)
+    private String saida;
+
+    // Erro que impediu o processamento, ou null
+    private String erro;
+
+    ResultadoImagem(int largura, int altura) {
+        this.largura = largura;
+        this.altura = altura;
+    }
+
+    // Registro de uma imagem que no pde ser processada
+    static ResultadoImagem falha(String arquivo, String erro) {
+        ResultadoImagem r = new ResultadoImagem(0, 0);
+        r.arquivo = arquivo;
+        r.erro = erro;
+        return r;
+    }
+
+    /*Acrescenta os defeitos e pontos de curvatura zero de uma componente.
+     As componentes devem ser adicionadas na ordem da lista de componentes
+     */
+    void adicionaComponente(ResultadoCurva r) {
+        int componente = numComponentes++;
+        for (int i : r.inflexoes) {
+            defeitos.add(new Defeito(r.suaveX[i], r.suaveY[i], r.kappa_norm[i], componente, i));
+        }
+        pontosCurvaturaZero += r.curvaturaZero.length;
+    }
+
+    void adicionaTempo(String etapa, long nanos) {
+        Long anterior = tempos.get(etapa);
+        tempos.put(etapa, anterior == null ? nanos : anterior + nanos);
+    }
+
+    void setArquivo(String arquivo) {
+        this.arquivo = arquivo;
+    }
+
+    void setImagem(BufferedImage imagem) {
+        this.imagem = imagem;
+    }
+
+    void setGravada(boolean gravada) {
+        this.gravada = gravada;
+    }
+
+    void setSaida(String saida) {
+        this.saida = saida;
+    }
+
+    public String getSaida() {
+        return saida;
+    }
+
+    public boolean isGravada() {
+        return gravada;
+    }
+
+    public String getErro() {
+        return erro;
+    }
+
+    // "ok", ou "erro" se a imagem no pde ser processada
+    public String getSituacao() {
+        return erro == null ? "ok" : "erro";
+    }
+
+    public String getArquivo() {
+        return arquivo;
+    }
+
+    public int getLargura() {
+        return largura;
+    }
+
+    public int getAltura() {
+        return altura;
+    }
+
+    public int getNumComponentes() {
+        return numComponentes;
+    }
+
+    public int getPontosCurvaturaZero() {
+        return pontosCurvaturaZero;
+    }
+
+    public List<Defeito> getDefeitos() {
+        return Collections.unmodifiableList(defeitos);
+    }
+
+    public Map<String, Long> getTempos() {
+        return Collections.unmodifiableMap(tempos);
+    }
+
+    public BufferedImage getImagem() {
+        return imagem;
+    }
+}
@@ -0,0 +1,273 @@
+package detectordefeitos;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*Rotulao de componentes conexos (vizinhana 8) dos pixels pretos de
+ uma imagem. A imagem  copiada uma nica vez para um vetor de bytes e
+ cada linha  decomposta em runs, isto , trechos horizontais contnuos
+ de pixels pretos. Runs de linhas vizinhas que se tocam so unidos em uma
+ estrutura de unio-busca, sem recurso, de forma que o tamanho da
+ componente no depende do tamanho da pilha.
+
+ As linhas so divididas em faixas rotuladas em paralelo. Ao final, os
+ runs da ltima linha de cada faixa so unidos aos da primeira linha da
+ faixa seguinte (costura das faixas)
+ */
+
+public class RotuladorComponentes {
+
+    // Nmero mnimo de linhas para que valha a pena criar mais uma faixa
+    private static final int MINIMO_LINHAS_FAIXA = 64;
+
+    private static final byte PRETO = 0;
+    private static final byte BRANCO = (byte) 255;
+
+    /*Runs de um conjunto de linhas, em ordem de varredura (linha a linha,
+     da esquerda para a direita), e a floresta de unio-busca entre eles.
+     A raiz de cada rvore  sempre o run de menor ndice da componente
+     */
+    static class Runs {
+        int n;
+        int[] linha = new int[64];
+        int[] inicio = new int[64];
+        int[] fim = new int[64];
+        int[] pai = new int[64];
+
+        void adiciona(int l, int i, int f) {
+            if (n == linha.length) {
+                int tamanho = n * 2;
+                linha = Arrays.copyOf(linha, tamanho);
+                inicio = Arrays.copyOf(inicio, tamanho);
+                fim = Arrays.copyOf(fim, tamanho);
+                pai = Arrays.copyOf(pai, tamanho);
+            }
+            linha[n] = l;
+            inicio[n] = i;
+            fim[n] = f;
+            pai[n] = n;
+            n++;
+        }
+
+        int raiz(int r) {
+            while (pai[r] != r) {
+                pai[r] = pai[pai[r]];
+                r = pai[r];
+            }
+            return r;
+        }
+
+        void une(int a, int b) {
+            int ra = raiz(a);
+            int rb = raiz(b);
+            if (ra < rb) pai[rb] = ra;
+            else if (rb < ra) pai[ra] = rb;
+        }
+
+        /*Une os runs [a0, a1) de uma linha aos runs [b0, b1) da linha
+         seguinte que encostam neles (inclusive na diagonal)
+         */
+        void conectaLinhas(int a0, int a1, int b0, int b1) {
+            int i = a0;
+            int j = b0;
+            while (i < a1 && j < b1) {
+                if (fim[i] + 1 < inicio[j]) {
+                    i++;
+                } else if (fim[j] + 1 < inicio[i]) {
+                    j++;
+                } else {
+                    une(i, j);
+                    if (fim[i] < fim[j]) i++;
+                    else j++;
+                }
+            }
+        }
+    }
+
+    // Recebe cada run de uma componente descartada por ser pequena
+    interface Descarte {
+        void descarta(int linha, int inicio, int fim);
+    }
+
+    /*Encontra as componentes conexas pretas da imagem (fronteiras). As
+     componentes com minimoPontos pontos ou menos so consideradas rudo:
+     so pintadas de branco na prpria imagem e no so devolvidas
+     */
+    public ArrayList<Componente> encontraComponentes(Mat a, int minimoPontos) {
+        if (!a.isContinuous()) {
+            throw new IllegalArgumentException("A imagem deve ser contnua na memria");
+        }
+
+        final int largura = a.cols();
+        int altura = a.rows();
+        final int canais = a.channels();
+
+        final byte[] pixels = new byte[largura * altura * canais];
+        a.get(0, 0, pixels);
+
+        Runs runs = rotula(pixels, largura, altura, canais);
+
+        //Elimina componentes pequenas (eliminao de rudo)
+        final boolean[] apagou = {false};
+        ArrayList<Componente> todos = agrupa(runs, minimoPontos, new Descarte() {
+            public void descarta(int linha, int inicio, int fim) {
+                int de = (linha * largura + inicio) * canais;
+                int ate = (linha * largura + fim + 1) * canais;
+                Arrays.fill(pixels, de, ate, BRANCO);
+                apagou[0] = true;
+            }
+        });
+        if (apagou[0]) {
+            a.put(0, 0, pixels);
+        }
+        return todos;
+    }
+
+    /*Monta as componentes a partir dos runs j unidos. Os runs das
+     componentes com minimoPontos pontos ou menos so passados ao descarte
+     */
+    static ArrayList<Componente> agrupa(Runs runs, int minimoPontos, Descarte descarte) {
+        // Numera as componentes na ordem em que aparecem na varredura
+        int[] componente = new int[runs.n];
+        int numComponentes = 0;
+        for (int r = 0; r < runs.n; r++) {
+            int raiz = runs.raiz(r);
+            componente[r] = (raiz == r) ? numComponentes++ : componente[raiz];
+        }
+
+        int[] tamanho = new int[numComponentes];
+        for (int r = 0; r < runs.n; r++) {
+            tamanho[componente[r]] += runs.fim[r] - runs.inicio[r] + 1;
+        }
+
+        // Coordenadas dos pontos de cada componente mantida
+        int[][] xs = new int[numComponentes][];
+        int[][] ys = new int[numComponentes][];
+        int[] preenchidos = new int[numComponentes];
+        for (int c = 0; c < numComponentes; c++) {
+            if (tamanho[c] > minimoPontos) {
+                xs[c] = new int[tamanho[c]];
+                ys[c] = new int[tamanho[c]];
+            }
+        }
+
+        for (int r = 0; r < runs.n; r++) {
+            int c = componente[r];
+            int y = runs.linha[r];
+
+            if (xs[c] != null) {
+                int k = preenchidos[c];
+                for (int x = runs.inicio[r]; x <= runs.fim[r]; x++, k++) {
+                    xs[c][k] = x;
+                    ys[c][k] = y;
+                }
+                preenchidos[c] = k;
+            } else {
+                descarte.descarta(y, runs.inicio[r], runs.fim[r]);
+            }
+        }
+
+        ArrayList<Componente> todos = new ArrayList<Componente>();
+        for (int c = 0; c < numComponentes; c++) {
+            if (xs[c] != null) todos.add(new Componente(xs[c], ys[c], tamanho[c]));
+        }
+        return todos;
+    }
+
+    /*Extrai os runs de pixels pretos (primeiro canal igual a 0) e os une
+     em componentes. passo  o nmero de bytes por pixel
+     */
+    static Runs rotula(final byte[] pixels, final int largura, int altura, final int passo) {
+        int numFaixas = Faixas.numFaixas(altura, MINIMO_LINHAS_FAIXA);
+        final Runs[] faixas = new Runs[numFaixas];
+
+        Faixas.executa(altura, numFaixas, new Faixas.Tarefa() {
+            public void executa(int faixa, int inicio, int fim) {
+                faixas[faixa] = rotulaFaixa(pixels, largura, passo, inicio, fim);
+            }
+        });
+
+        return junta(faixas);
+    }
+
+    // Rotula as linhas [linhaInicio, linhaFim) de forma independente
+    static Runs rotulaFaixa(byte[] pixels, int largura, int passo, int linhaInicio, int linhaFim) {
+        Runs runs = new Runs();
+        int anteriorInicio = 0;
+        int anteriorFim = 0;
+
+        for (int l = linhaInicio; l < linhaFim; l++) {
+            int atualInicio = runs.n;
+            int base = l * largura;
+
+            int c = 0;
+            while (c < largura) {
+                if (pixels[(base + c) * passo] != PRETO) {
+                    c++;
+                    continue;
+                }
+                int comeco = c;
+                while (c < largura && pixels[(base + c) * passo] == PRETO) c++;
+                runs.adiciona(l, comeco, c - 1);
+            }
+
+            if (l > linhaInicio) {
+                runs.conectaLinhas(anteriorInicio, anteriorFim, atualInicio, runs.n);
+            }
+            anteriorInicio = atualInicio;
+            anteriorFim = runs.n;
+        }
+        return runs;
+    }
+
+    // Concatena os runs das faixas e costura as componentes entre faixas vizinhas
+    static Runs junta(Runs[] faixas) {
+        if (faixas.length == 1) return faixas[0];
+
+        Runs todos = new Runs();
+        int total = 0;
+        for (Runs f : faixas) total += f.n;
+        todos.linha = new int[total];
+        todos.inicio = new int[total];
+        todos.fim = new int[total];
+        todos.pai = new int[total];
+
+        int[] deslocamento = new int[faixas.length];
+        for (int k = 0; k < faixas.length; k++) {
+            Runs f = faixas[k];
+            int d = todos.n;
+            deslocamento[k] = d;
+            System.arraycopy(f.linha, 0, todos.linha, d, f.n);
+            System.arraycopy(f.inicio, 0, todos.inicio, d, f.n);
+            System.arraycopy(f.fim, 0, todos.fim, d, f.n);
+            for (int r = 0; r < f.n; r++) {
+                todos.pai[d + r] = f.pai[r] + d;
+            }
+            todos.n += f.n;
+        }
+
+        for (int k = 1; k < faixas.length; k++) {
+            Runs anterior = faixas[k - 1];
+            Runs atual = faixas[k];
+            if (anterior.n == 0 || atual.n == 0) continue;
+
+            // Runs da ltima linha da faixa anterior
+            int ultimaLinha = anterior.linha[anterior.n - 1];
+            int a0 = anterior.n;
+            while (a0 > 0 && anterior.linha[a0 - 1] == ultimaLinha) a0--;
+
+            // Runs da primeira linha da faixa atual
+            int primeiraLinha = atual.linha[0];
+            int b1 = 0;
+            while (b1 < atual.n && atual.linha[b1] == primeiraLinha) b1++;
+
+            if (primeiraLinha == ultimaLinha + 1) {
+                todos.conectaLinhas(deslocamento[k - 1] + a0, deslocamento[k - 1] + anterior.n,
+                        deslocamento[k], deslocamento[k] + b1);
+            }
+        }
+        return todos;
+    }
+}
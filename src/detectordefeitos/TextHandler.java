@@ -0,0 +1,45 @@
+package detectordefeitos;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+// Class has methods for reading the inputs from txt and gathering data.
+// Only used to migrate the old Parametros/parametros file (see PerfisParametros)
+
+public class TextHandler {
+
+
+    public double[] readFile(String filestring) throws IOException {
+
+        //STRUCTURE FOR THE PARAMETERS IS:
+        //<sigma>,<thresh>,<mincurv>
+
+        double csvValues[] = new double[3]; //CSV = comma-separated-values
+        String last = null;
+        String[] divided;
+
+        BufferedReader reader = new BufferedReader(new FileReader(filestring));
+        try {
+            // only the LAST non-empty line is used
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) last = line;
+            }
+        } finally {
+            reader.close();
+        }
+
+        if (last == null) {
+            throw new IOException("Empty parameter file: " + filestring);
+        }
+
+        divided = last.split(",");
+        csvValues[0] = Double.valueOf(divided[0]);
+        csvValues[1] = Double.valueOf(divided[1]);
+        csvValues[2] = Double.valueOf(divided[2]);
+
+        return csvValues;
+    }
+
+}
@@ -0,0 +1,65 @@
+package detectordefeitos;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/*Binarizao pela janela [vMin, vMax] do canal V (HSV) de uma imagem.
+ Em vez de consultar pixel a pixel, a imagem inteira  copiada de uma vez
+ para um vetor de bytes, cada valor de V passa por uma tabela de 256
+ posies e a mscara resultante (um nico canal, 0 ou 255)  devolvida
+ ao Opencv em uma nica cpia
+ */
+
+public class ThresholdJanelaV {
+
+    private static final byte PRETO = 0;
+    private static final byte BRANCO = (byte) 255;
+
+    private final double vMin;
+    private final double vMax;
+
+    // Valor da mscara para cada valor possvel de V
+    private final byte[] tabela = new byte[256];
+
+    ThresholdJanelaV(double vMin, double vMax) {
+        this.vMin = vMin;
+        this.vMax = vMax;
+
+        for (int v = 0; v < 256; v++) {
+            tabela[v] = (v < vMin || v > vMax) ? PRETO : BRANCO;
+        }
+    }
+
+    public boolean temJanela(double vMin, double vMax) {
+        return this.vMin == vMin && this.vMax == vMax;
+    }
+
+    // Valor da mscara para um valor de V
+    byte classifica(int v) {
+        return tabela[v];
+    }
+
+    /*Aplica a janela  imagem HSV (ou a qualquer imagem cujo ltimo canal
+     seja o V) e devolve a mscara CV_8UC1
+     */
+    public Mat aplica(Mat imagemHSV) {
+        if (!imagemHSV.isContinuous()) {
+            imagemHSV = imagemHSV.clone();
+        }
+
+        int canais = imagemHSV.channels();
+        int total = (int) imagemHSV.total();
+
+        byte[] hsv = new byte[total * canais];
+        imagemHSV.get(0, 0, hsv);
+
+        byte[] mascara = new byte[total];
+        for (int i = 0, v = canais - 1; i < total; i++, v += canais) {
+            mascara[i] = tabela[hsv[v] & 0xff];
+        }
+
+        Mat resultado = new Mat(imagemHSV.rows(), imagemHSV.cols(), CvType.CV_8UC1);
+        resultado.put(0, 0, mascara);
+        return resultado;
+    }
+}